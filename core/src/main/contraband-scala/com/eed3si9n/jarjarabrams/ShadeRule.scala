@@ -43,5 +43,6 @@ object ShadeRule {
   def moveUnder(from: String, to: String): ShadePattern = rename(s"$from.**" -> s"$to.$from.@1")
   def zap(patterns: String*): ShadePattern = Zap(patterns.toSeq.toList)
   def keep(patterns: String*): ShadePattern = Keep(patterns.toSeq.toList)
+  def rewriteContent(resourceGlobs: String*): ShadePattern = RewriteContent(resourceGlobs.toSeq.toList)
   def apply(shadePattern: com.eed3si9n.jarjarabrams.ShadePattern, targets: Vector[ShadeTarget]): ShadeRule = new ShadeRule(shadePattern, targets)
 }
@@ -1,13 +1,17 @@
 package com.eed3si9n.jarjar
 
-import java.io.IOException
+import java.io.{ File, IOException }
 
-import misplaced.MisplacedClassProcessorFactory
+import misplaced.{ MisplacedClassProcessor, MisplacedClassProcessorFactory }
 import util.{
+  CachingJarProcessor,
+  ClassTransform,
+  EntryCache,
   EntryStruct,
   JarProcessor,
   JarProcessorChain,
   JarTransformerChain,
+  NameDecision,
   RemappingClassTransformer,
   StandaloneJarProcessor
 }
@@ -19,27 +23,48 @@ import scala.collection.mutable
  * Creates a new JJProcessor, which automatically generates the standard zap, keep, remap, etc processors.
  * This is a copy of the MainProcessor in JarJar with an added ScalaSigProcessor
  *
- * @param patterns               List of rules to parse.
+ * @param ruleSet                Compiled rules, which can be shared with other processors.
  * @param verbose                Whether to verbosely log information.
  * @param skipManifest           If true, omits the manifest file from the processed jar.
  * @param misplacedClassStrategy The strategy to use when processing class files that are in the
  *                               wrong package (see MisplacedClassProcessorFactory.STRATEGY_* constants).
+ * @param pr                     Remapper for the rules of ruleSet, whose caches can be shared with
+ *                               other processors for the same rules.
  */
 class JJProcessor(
-    val patterns: Seq[PatternElement],
+    val ruleSet: RuleSet,
     val verbose: Boolean,
     val skipManifest: Boolean,
-    val misplacedClassStrategy: String
+    val misplacedClassStrategy: String,
+    val pr: PackageRemapper
 ) extends JarProcessor {
 
-  val zapList: Seq[Zap] = patterns.collect { case zap: Zap     => zap }
-  val ruleList: Seq[Rule] = patterns.collect { case rule: Rule => rule }
-  val keepList: Seq[Keep] = patterns.collect { case keep: Keep => keep }
-  val renames: mutable.Map[String, String] = collection.mutable.HashMap[String, String]()
+  def this(
+      ruleSet: RuleSet,
+      verbose: Boolean,
+      skipManifest: Boolean,
+      misplacedClassStrategy: String
+  ) =
+    this(ruleSet, verbose, skipManifest, misplacedClassStrategy, new PackageRemapper(ruleSet, verbose))
 
-  val kp: KeepProcessor = if (keepList.isEmpty) null else new KeepProcessor(keepList.asJava)
-
-  val pr = new PackageRemapper(ruleList.asJava, verbose)
+  /**
+   * @param patterns List of rules to parse.
+   */
+  def this(
+      patterns: Seq[PatternElement],
+      verbose: Boolean,
+      skipManifest: Boolean,
+      misplacedClassStrategy: String
+  ) = this(new RuleSet(patterns.asJava), verbose, skipManifest, misplacedClassStrategy)
+
+  val patterns: Seq[PatternElement] = ruleSet.getPatterns.asScala.toList
+  val zapList: Seq[Zap] = ruleSet.getZaps.asScala.toList
+  val ruleList: Seq[Rule] = ruleSet.getRules.asScala.toList
+  val keepList: Seq[Keep] = ruleSet.getKeeps.asScala.toList
+  // written from every thread processing entries
+  val renames: mutable.Map[String, String] = collection.concurrent.TrieMap[String, String]()
+
+  val kp: KeepProcessor = if (keepList.isEmpty) null else new KeepProcessor(ruleSet.getKeepMatcher)
 
   val processors: mutable.ArrayBuffer[JarProcessor] = collection.mutable.ArrayBuffer[JarProcessor]()
   if (skipManifest)
@@ -49,15 +74,18 @@ class JJProcessor(
 
   val misplacedClassProcessor: JarProcessor =
     MisplacedClassProcessorFactory.getInstance.getProcessorForName(misplacedClassStrategy)
-  processors += new ZapProcessor(zapList.asJava)
-  processors += misplacedClassProcessor
-  processors += new JarTransformerChain(
+  val zap = new ZapProcessor(ruleSet.getZapMatcher)
+  val transformer = new JarTransformerChain(
     Array[RemappingClassTransformer](new RemappingClassTransformer()),
     pr
   )
+  processors += zap
+  processors += misplacedClassProcessor
+  processors += transformer
 
   val renamer: String => Option[String] = {
-    val wildcards = PatternElement.createWildcards(ruleList.asJava).asScala
+    // compiled once, for pr as well
+    val wildcards = ruleSet.getRuleWildcards.asScala
 
     (value: String) => {
       val result = wildcards.flatMap { wc =>
@@ -72,10 +100,78 @@ class JJProcessor(
     }
   }
 
-  processors += new ScalaSigProcessor(renamer)
-  processors += new MethodSignatureProcessor(pr)
-  processors += new ResourceProcessor(pr)
-  val chain = new JarProcessorChain(processors.toArray)
+  val scalaSigProcessor = new ScalaSigProcessor(renamer)
+  val methodSignatureProcessor = new MethodSignatureProcessor(pr)
+  processors += scalaSigProcessor
+  processors += methodSignatureProcessor
+  val resourceProcessor = new ResourceProcessor(pr, ruleSet.getResourceGlobs)
+  processors += resourceProcessor
+  val chain: JarProcessorChain = new JarProcessorChain(processors.toArray)
+  // what entries go through: the chain, with the class processors run in one pass over a class
+  val fused: JarProcessor = new FusedClassProcessor(
+    chain,
+    kp,
+    zap,
+    pr,
+    Array[ClassTransform](transformer, scalaSigProcessor, methodSignatureProcessor)
+  )
+
+  /**
+   * Returns the name an entry of `name` is given, worked out from the name alone: for a class
+   * file, from the class its path stands for, which is the class it holds unless it is misplaced.
+   */
+  def entryName(name: String): String =
+    if (name.endsWith(".class")) {
+      val versioned = MisplacedClassProcessor.VERSIONED_CLASS_FOLDER
+      val prefix =
+        if (name.startsWith(versioned) && name.indexOf('/', versioned.length) >= 0)
+          name.substring(0, name.indexOf('/', versioned.length) + 1)
+        else ""
+      Option(pr.map(name.substring(prefix.length, name.length - ".class".length)))
+        .fold(name)(prefix + _ + ".class")
+    } else resourceProcessor.mapName(name)
+
+  /**
+   * Returns a new processor for `rules`, which must rename as the rules of this one do, sharing the
+   * remapping caches of this one, so that a name looked up for one jar is not worked out again for
+   * the next.
+   */
+  def sharingCaches(rules: RuleSet): JJProcessor =
+    new JJProcessor(rules, verbose, skipManifest, misplacedClassStrategy, pr)
+
+  /**
+   * Returns this processor looking entries up in `cache` first, or this processor itself if it
+   * has keep rules, which decide on an entry from the rest of the jar.
+   */
+  def cachedBy(cache: EntryCache): JarProcessor =
+    if (kp != null) this
+    else
+      new CachingJarProcessor(
+        this,
+        cache,
+        EntryCache.fingerprint(
+          "scalasig",
+          EntryCache.buildOf(classOf[JJProcessor]),
+          ruleSet.getFingerprint,
+          Boolean.box(skipManifest),
+          misplacedClassStrategy
+        )
+      )
+
+  /**
+   * With keep rules, works out from `file` which classes the roots reach before the jar
+   * is processed, so that processing writes only those. Without keep rules this does nothing.
+   */
+  @throws[IOException]
+  def analyze(file: File): Unit =
+    if (kp != null) kp.analyze(file)
+
+  /**
+   * Same as above, for the entries of an input that is not a jar, which are read only with keep
+   * rules.
+   */
+  def analyze(entries: Iterator[EntryStruct]): Unit =
+    if (kp != null) kp.analyze(entries.asJava)
 
   @throws[IOException]
   def strip(file: Nothing): Unit = {
@@ -106,7 +202,7 @@ class JJProcessor(
   @throws[IOException]
   def process(struct: EntryStruct): Boolean = {
     val name = struct.name
-    val keepIt = chain.process(struct)
+    val keepIt = fused.process(struct)
     if (keepIt) {
       if (!name.equals(struct.name)) {
         if (kp != null) renames.put(name, struct.name)
@@ -119,4 +215,6 @@ class JJProcessor(
     }
     keepIt
   }
+
+  override def processName(name: String): NameDecision = fused.processName(name)
 }
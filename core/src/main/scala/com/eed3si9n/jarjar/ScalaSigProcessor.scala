@@ -1,20 +1,29 @@
 package com.eed3si9n.jarjar
 
-import org.objectweb.asm.{ ClassReader, ClassWriter }
-import util.{ EntryStruct, JarProcessor }
+import org.objectweb.asm.{ ClassReader, ClassVisitor, ClassWriter }
+import org.objectweb.asm.commons.Remapper
+import util.{ ClassTransform, EntryStruct, JarProcessor }
 import com.eed3si9n.jarjarabrams.scalasig.ScalaSigClassVisitor
 
-class ScalaSigProcessor(renamer: String => Option[String]) extends JarProcessor {
+class ScalaSigProcessor(renamer: String => Option[String])
+    extends JarProcessor
+    with ClassTransform {
   override def process(struct: EntryStruct): Boolean = {
 
     if (!struct.name.endsWith(".class") || struct.skipTransform) true
     else {
-      val classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+      val classWriter = new ClassWriter(0)
       val reader = new ClassReader(struct.data)
 
-      reader.accept(new ScalaSigClassVisitor(classWriter, renamer), ClassReader.EXPAND_FRAMES)
+      reader.accept(transform(classWriter, null), 0)
       struct.data = classWriter.toByteArray
       true
     }
   }
+
+  override def transform(parent: ClassVisitor, remapper: Remapper): ClassVisitor =
+    new ScalaSigClassVisitor(parent, renamer)
+
+  // the signature is rewritten through the renamer, which does not report its changes
+  override def tracksChanges(): Boolean = false
 }
@@ -0,0 +1,78 @@
+package com.eed3si9n.jarjarabrams
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Path
+import com.eed3si9n.jarjar.util.DuplicateJarEntryException
+
+/**
+ * Decides what an assembled jar holds under a name, given what each input that has an entry
+ * of that name holds under it once shaded, in the order of the inputs, or `None` to leave the
+ * name out.
+ */
+trait MergeStrategy {
+  def apply(name: String, candidates: Seq[(Path, Array[Byte])]): Option[Array[Byte]]
+}
+
+object MergeStrategy {
+
+  /** Keeps the entry of the first input. */
+  val first: MergeStrategy = (_, candidates) => candidates.headOption.map(_._2)
+
+  /** Keeps the entry of the last input. */
+  val last: MergeStrategy = (_, candidates) => candidates.lastOption.map(_._2)
+
+  /** Leaves the name out. */
+  val discard: MergeStrategy = (_, _) => None
+
+  /** Keeps the entry if only one input has it, and throws otherwise. */
+  val singleOrError: MergeStrategy = (name, candidates) =>
+    candidates match {
+      case Seq((_, data)) => Some(data)
+      case _              => throw duplicate(name, candidates)
+    }
+
+  /** Keeps the entry if every input that has it holds the same bytes, and throws otherwise. */
+  val deduplicate: MergeStrategy = (name, candidates) =>
+    candidates.headOption.map {
+      case (_, data) =>
+        if (candidates.forall(c => java.util.Arrays.equals(c._2, data))) data
+        else throw duplicate(name, candidates)
+    }
+
+  /** Joins the entries of every input, one after the other. */
+  val concat: MergeStrategy = (_, candidates) =>
+    Some(candidates.map(_._2).foldLeft(Array.emptyByteArray)(_ ++ _))
+
+  /**
+   * Joins the lines of every input's entry, read as UTF-8, leaving out blank lines and lines seen
+   * before, as for the provider lists of `META-INF/services`.
+   */
+  val distinctLines: MergeStrategy = (_, candidates) => {
+    val lines = candidates.flatMap {
+      case (_, data) => new String(data, StandardCharsets.UTF_8).split("\r?\n").toSeq
+    }.filter(_.trim.nonEmpty).distinct
+    Some(lines.map(_ + "\n").mkString.getBytes(StandardCharsets.UTF_8))
+  }
+
+  /**
+   * Keeps the first manifest, leaves out the signatures, which shading breaks, and keeps the
+   * other entries when the inputs that have them agree on their bytes.
+   */
+  def default(name: String): MergeStrategy =
+    if (name == "META-INF/MANIFEST.MF") first
+    else if (isSignature(name)) discard
+    else deduplicate
+
+  private def isSignature(name: String): Boolean =
+    name.startsWith("META-INF/") && name.indexOf('/', "META-INF/".length) < 0 && {
+      val upper = name.toUpperCase
+      upper.endsWith(".SF") || upper.endsWith(".DSA") || upper.endsWith(".RSA") ||
+      upper.endsWith(".EC")
+    }
+
+  private def duplicate(
+      name: String,
+      candidates: Seq[(Path, Array[Byte])]
+  ): DuplicateJarEntryException =
+    new DuplicateJarEntryException(candidates.map(_._1).mkString(", "), name)
+}
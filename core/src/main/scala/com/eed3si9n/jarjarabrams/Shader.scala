@@ -1,10 +1,14 @@
 package com.eed3si9n.jarjarabrams
 
-import java.nio.file.{ Files, Path, StandardOpenOption }
+import java.io.{ ByteArrayOutputStream, DataInputStream, DataOutputStream, IOException }
+import java.nio.file.{ Files, Path, StandardCopyOption, StandardOpenOption }
+import java.util.concurrent.{ Callable, ExecutionException, ForkJoinPool }
+import java.util.jar.{ JarFile, Manifest }
 import com.eed3si9n.jarjar.{ JJProcessor, _ }
-import com.eed3si9n.jarjar.util.EntryStruct
+import com.eed3si9n.jarjar.util.{ EntryCache, EntryStruct, JarProcessor, NameDecision }
 import Zip.createDirectories
 import scala.collection.JavaConverters._
+import scala.collection.mutable
 
 object Shader {
   def shadeFile(
@@ -15,9 +19,189 @@ object Shader {
       skipManifest: Boolean,
       resetTimestamp: Boolean,
       warnOnDuplicateClass: Boolean
+  ): Unit =
+    shadeFile(
+      rules,
+      inputJar,
+      outputJar,
+      verbose,
+      skipManifest,
+      resetTimestamp,
+      warnOnDuplicateClass,
+      cache = None
+    )
+
+  /**
+   * Shades `inputJar` into `outputJar` using `cache`: a jar shaded before with the same rules and
+   * flags is copied from it without being opened, and otherwise each entry is looked up in it
+   * when the rules have no keep patterns, and the entries and the jar shaded are stored.
+   */
+  def shadeFile(
+      rules: Seq[ShadeRule],
+      inputJar: Path,
+      outputJar: Path,
+      verbose: Boolean,
+      skipManifest: Boolean,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      cache: Option[EntryCache]
+  ): Unit =
+    shadeFile(
+      ruleSet(rules),
+      inputJar,
+      outputJar,
+      verbose,
+      skipManifest,
+      resetTimestamp,
+      warnOnDuplicateClass,
+      cache
+    )
+
+  /**
+   * Same as above, for rules compiled once with `ruleSet`, which any number of calls can share.
+   */
+  def shadeFile(
+      rules: RuleSet,
+      inputJar: Path,
+      outputJar: Path,
+      verbose: Boolean,
+      skipManifest: Boolean,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      cache: Option[EntryCache]
+  ): Unit =
+    shadeFile(
+      rules,
+      None,
+      inputJar,
+      outputJar,
+      verbose,
+      skipManifest,
+      resetTimestamp,
+      warnOnDuplicateClass,
+      cache,
+      ahead = 0,
+      manifest = None
+    )
+
+  /**
+   * Same as above, except that `manifest` is written as the first entry of `outputJar`, in place
+   * of the manifest of `inputJar`.
+   */
+  def shadeFile(
+      rules: Seq[ShadeRule],
+      inputJar: Path,
+      outputJar: Path,
+      verbose: Boolean,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      cache: Option[EntryCache],
+      manifest: Manifest
+  ): Unit =
+    shadeFile(
+      ruleSet(rules),
+      None,
+      inputJar,
+      outputJar,
+      verbose,
+      skipManifest = true,
+      resetTimestamp,
+      warnOnDuplicateClass,
+      cache,
+      ahead = 0,
+      Some(manifest)
+    )
+
+  // shares the remapping caches of base, if any, and shades up to ahead entries at once
+  private def shadeFile(
+      rules: RuleSet,
+      base: Option[JJProcessor],
+      inputJar: Path,
+      outputJar: Path,
+      verbose: Boolean,
+      skipManifest: Boolean,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      cache: Option[EntryCache],
+      ahead: Int,
+      manifest: Option[Manifest]
+  ): Unit = {
+    val manifestEntry = manifest.map { m =>
+      val bytes = new ByteArrayOutputStream
+      m.write(bytes)
+      Zip.entryStruct(JarFile.MANIFEST_NAME, 0L, bytes.toByteArray)
+    }
+    cache match {
+      case Some(c) =>
+        val key = EntryCache.fingerprint(
+          "jar",
+          EntryCache.buildOf(getClass),
+          Zip.sha256(inputJar),
+          rules.getFingerprint,
+          Boolean.box(skipManifest),
+          Boolean.box(resetTimestamp),
+          Boolean.box(warnOnDuplicateClass),
+          manifestEntry.fold("")(entry => Zip.sha256(entry.data))
+        )
+        // a jar copied from the cache gets the modified time a jar shaded anew is given
+        if (c.copyTo(key, outputJar)) Zip.resetModifiedTime(outputJar)
+        else {
+          shadeJar(
+            rules,
+            base,
+            inputJar,
+            outputJar,
+            verbose,
+            skipManifest,
+            resetTimestamp,
+            warnOnDuplicateClass,
+            cache,
+            ahead,
+            manifestEntry
+          )
+          c.put(key, outputJar)
+        }
+      case None =>
+        shadeJar(
+          rules,
+          base,
+          inputJar,
+          outputJar,
+          verbose,
+          skipManifest,
+          resetTimestamp,
+          warnOnDuplicateClass,
+          cache,
+          ahead,
+          manifestEntry
+        )
+    }
+  }
+
+  private def shadeJar(
+      rules: RuleSet,
+      base: Option[JJProcessor],
+      inputJar: Path,
+      outputJar: Path,
+      verbose: Boolean,
+      skipManifest: Boolean,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      cache: Option[EntryCache],
+      ahead: Int,
+      manifestEntry: Option[EntryStruct]
   ): Unit = {
-    val shader = bytecodeShader(rules, verbose, skipManifest)
-    Zip.transformJarFile(inputJar, outputJar, resetTimestamp, warnOnDuplicateClass) { struct0 =>
+    val (shader, keepName) = jarShader(rules, base, inputJar, verbose, skipManifest, cache)
+    Zip.transformJarFile(
+      inputJar,
+      outputJar,
+      resetTimestamp,
+      warnOnDuplicateClass,
+      // a manifest of its own replaces that of the input, even without rules
+      name => keepName(name) && (manifestEntry.isEmpty || name != JarFile.MANIFEST_NAME),
+      ahead,
+      manifestEntry.toList
+    ) { struct0 =>
       shader(struct0.data, struct0.name).map {
         case (shadedBytes, shadedName) =>
           Zip.entryStruct(shadedName, struct0.time, shadedBytes, struct0.skipTransform)
@@ -25,6 +209,258 @@ object Shader {
     }
   }
 
+  // the shader for the entries of inputJar, and whether an entry of a given name is read at all
+  private def jarShader(
+      rules: RuleSet,
+      base: Option[JJProcessor],
+      inputJar: Path,
+      verbose: Boolean,
+      skipManifest: Boolean,
+      cache: Option[EntryCache]
+  ): ((Array[Byte], String) => Option[(Array[Byte], String)], String => Boolean) =
+    if (rules.isEmpty) (bytecodeShader(rules, verbose, skipManifest), (_: String) => true)
+    else {
+      // zap and keep patterns that match no entry of the jar are dropped up front
+      val relevant = rules.relevantTo(Zip.list(inputJar).map(_._1).asJava)
+      val proc = base match {
+        case Some(b) => b.sharingCaches(relevant)
+        case None    => jjProcessor(relevant, verbose, skipManifest)
+      }
+      // with keep rules, the classes to keep are worked out before the single write pass
+      proc.analyze(inputJar.toFile)
+      // entries the processor drops by name alone are never inflated
+      (
+        bytecodeShader(proc, cache),
+        (name: String) => proc.processName(sanitize(name)) != NameDecision.DROP
+      )
+    }
+
+  def shadeFiles(
+      rules: Seq[ShadeRule],
+      jars: Seq[(Path, Path)],
+      parallelism: Int
+  ): Seq[(Path, Throwable)] =
+    shadeFiles(
+      rules,
+      jars,
+      verbose = false,
+      skipManifest = false,
+      resetTimestamp = false,
+      warnOnDuplicateClass = false,
+      cache = None,
+      parallelism
+    )
+
+  /**
+   * Shades each of `jars`, given as the input jar and the output jar, with `rules`, compiled once
+   * for all of them, as are the remapping caches. Jars and their entries are shaded on one pool
+   * of `parallelism` threads, the largest jars first. A jar that fails does not stop the others,
+   * and the input jars that failed are returned along with what they failed with.
+   */
+  def shadeFiles(
+      rules: Seq[ShadeRule],
+      jars: Seq[(Path, Path)],
+      verbose: Boolean,
+      skipManifest: Boolean,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      cache: Option[EntryCache],
+      parallelism: Int
+  ): Seq[(Path, Throwable)] = {
+    val compiled = ruleSet(rules)
+    shadeBatch(
+      jars.map { case (inputJar, outputJar) => (compiled, inputJar, outputJar) },
+      verbose,
+      skipManifest,
+      resetTimestamp,
+      warnOnDuplicateClass,
+      cache,
+      parallelism
+    )
+  }
+
+  /**
+   * Shades each of `jars`, given as the module it comes from (`None` for the project's own
+   * classes), the input jar and the output jar, with the rules whose targets apply to that
+   * module, on a pool of `parallelism` threads as `shadeFiles` does. The rules are compiled once
+   * for each distinct set of rules that applies, shared by every jar it applies to, as is
+   * `cache`. If any jar fails, the first failure is thrown once every jar is done.
+   */
+  def shadeModules(
+      rules: Seq[ShadeRule],
+      jars: Seq[(Option[ModuleCoordinate], Path, Path)],
+      verbose: Boolean,
+      skipManifest: Boolean,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      cache: Option[EntryCache],
+      parallelism: Int
+  ): Unit = {
+    val compiled = mutable.Map[Seq[ShadeRule], RuleSet]()
+    val jobs = jars.map {
+      case (module, inputJar, outputJar) =>
+        val applicable = rules.filter { rule =>
+          module.fold(rule.isApplicableToCompiling)(rule.isApplicableTo)
+        }
+        (compiled.getOrElseUpdate(applicable, ruleSet(applicable)), inputJar, outputJar)
+    }
+    val failures = shadeBatch(
+      jobs,
+      verbose,
+      skipManifest,
+      resetTimestamp,
+      warnOnDuplicateClass,
+      cache,
+      parallelism
+    )
+    failures.headOption.foreach { case (_, e) => throw e }
+  }
+
+  // shades each job on a work-stealing pool, and returns the failures in the order of jobs
+  private def shadeBatch(
+      jobs: Seq[(RuleSet, Path, Path)],
+      verbose: Boolean,
+      skipManifest: Boolean,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      cache: Option[EntryCache],
+      parallelism: Int
+  ): Seq[(Path, Throwable)] = {
+    val threads = math.max(1, parallelism)
+    // one processor per rule set, whose caches every jar shaded with those rules shares
+    val bases = mutable.Map[RuleSet, Option[JJProcessor]]()
+    jobs.foreach {
+      case (rules, _, _) =>
+        bases.getOrElseUpdate(
+          rules,
+          if (rules.isEmpty) None else Some(jjProcessor(rules, verbose, skipManifest))
+        )
+    }
+    // a jar forks its entries onto the pool, where the threads with no jar left to start take them
+    val ahead = if (threads == 1) 0 else threads * 4
+    val pool = new ForkJoinPool(threads)
+    try {
+      // the largest jars start first, so that none of them is left running on its own at the end
+      val largestFirst = jobs.zipWithIndex.sortBy {
+        case ((_, inputJar, _), _) => -inputJar.toFile.length
+      }
+      val tasks = largestFirst.map {
+        case ((rules, inputJar, outputJar), i) =>
+          val task = pool.submit(new Callable[Unit] {
+            def call(): Unit =
+              shadeFile(
+                rules,
+                bases(rules),
+                inputJar,
+                outputJar,
+                verbose,
+                skipManifest,
+                resetTimestamp,
+                warnOnDuplicateClass,
+                cache,
+                ahead,
+                manifest = None
+              )
+          })
+          (i, inputJar, task)
+      }
+      tasks
+        .flatMap {
+          case (i, inputJar, task) =>
+            try {
+              task.get
+              None
+            } catch {
+              case e: ExecutionException => Some(i -> (inputJar -> e.getCause))
+            }
+        }
+        .sortBy(_._1)
+        .map(_._2)
+    } finally pool.shutdown()
+  }
+
+  def assemble(
+      inputs: Seq[Path],
+      rules: Seq[ShadeRule],
+      mergeStrategy: String => MergeStrategy,
+      output: Path
+  ): Path =
+    assemble(
+      inputs,
+      rules,
+      mergeStrategy,
+      output,
+      verbose = false,
+      resetTimestamp = false,
+      parallelism = Runtime.getRuntime.availableProcessors
+    )
+
+  /**
+   * Shades `inputs` with `rules` and writes what they hold together into the single jar
+   * `output`, in one pass, in the order of `inputs`. The entries are shaded on a pool of
+   * `parallelism` threads and written as they are, so that only the names that more than one
+   * entry has once shaded, as the rules tell from the names of the inputs' entries, and the
+   * provider lists of `META-INF/services`, which are joined, are held in memory until every input
+   * that has them is read. What every other name holds is decided by `mergeStrategy(name)`, for
+   * the shaded name, whether one entry has it or several, so that `MergeStrategy.default` or a
+   * strategy of its own can be used for any name. Only a misplaced class, whose shaded name does
+   * not follow from its path, is reported as a duplicate if it lands on a name written already.
+   */
+  def assemble(
+      inputs: Seq[Path],
+      rules: Seq[ShadeRule],
+      mergeStrategy: String => MergeStrategy,
+      output: Path,
+      verbose: Boolean,
+      resetTimestamp: Boolean,
+      parallelism: Int
+  ): Path = {
+    val compiled = ruleSet(rules)
+    val base =
+      if (compiled.isEmpty) None
+      else Some(jjProcessor(compiled, verbose, skipManifest = false))
+    val threads = math.max(1, parallelism)
+    def isService(name: String): Boolean = name.startsWith("META-INF/services/")
+    createDirectories(output.getParent)
+    val pool = new ForkJoinPool(threads)
+    val task = pool.submit(new Callable[Path] {
+      def call(): Path =
+        Zip.mergeJarFiles(
+          inputs,
+          output,
+          resetTimestamp,
+          ahead = threads * 4,
+          first = Seq(JarFile.MANIFEST_NAME),
+          held = isService,
+          rename = name => base.fold(name)(_.entryName(sanitize(name)))
+        ) { i =>
+          val (shader, keepName) =
+            jarShader(compiled, base, inputs(i), verbose, skipManifest = false, cache = None)
+          (
+            keepName,
+            struct =>
+              shader(struct.data, struct.name).map {
+                case (shadedBytes, shadedName) =>
+                  Zip.entryStruct(shadedName, struct.time, shadedBytes)
+              }
+          )
+        } { (name, candidates) =>
+          val strategy = if (isService(name)) MergeStrategy.distinctLines else mergeStrategy(name)
+          strategy(name, candidates.map { case (inputJar, entry) => inputJar -> entry.data })
+            .map { data =>
+              // the entry itself when it is kept as it is, so that its bytes are reused
+              candidates
+                .collectFirst { case (_, entry) if entry.data eq data => entry }
+                .getOrElse(Zip.entryStruct(name, candidates.head._2.time, data))
+            }
+        }
+    })
+    try task.get
+    catch {
+      case e: ExecutionException => throw e.getCause
+    } finally pool.shutdown()
+  }
+
   def makeMappings(dir: Path): List[(Path, String)] =
     Files.walk(dir).iterator().asScala.toList.flatMap { x =>
       if (x == dir) None
@@ -44,10 +480,30 @@ object Shader {
       mappings: Seq[(Path, String)],
       verbose: Boolean,
       skipManifest: Boolean
+  ): Unit = shadeDirectory(rules, dir, mappings, verbose, skipManifest, cache = None)
+
+  /**
+   * Shades the files of `dir` listed in `mappings` in place, looking each one up in `cache`
+   * first when the rules have no keep patterns, and storing the files shaded otherwise. Keep rules
+   * keep the classes they match and every class of `mappings` those reach, as for a jar.
+   */
+  def shadeDirectory(
+      rules: Seq[ShadeRule],
+      dir: Path,
+      mappings: Seq[(Path, String)],
+      verbose: Boolean,
+      skipManifest: Boolean,
+      cache: Option[EntryCache]
   ): Unit =
     if (rules.isEmpty) ()
     else {
-      val shader = bytecodeShader(rules, verbose, skipManifest)
+      val proc = jjProcessor(ruleSet(rules), verbose, skipManifest)
+      // with keep rules, the classes to keep are worked out from every file before any is shaded
+      proc.analyze(mappings.iterator.collect {
+        case (path, name) if name.endsWith(".class") && !Files.isDirectory(path) =>
+          Zip.entryStruct(sanitize(name), -1L, Files.readAllBytes(path))
+      })
+      val shader = bytecodeShader(proc, cache)
       for {
         (path, name) <- mappings
         if !Files.isDirectory(path)
@@ -64,65 +520,236 @@ object Shader {
       }
     }
 
+  /**
+   * Shades the entries of `inputJar` into `dir`, as unzipping it there and calling
+   * `shadeDirectory` would. What each entry was shaded into is recorded in `state`, so that a
+   * later call with the same rules shades only the entries added or changed since, and deletes
+   * what the removed entries were shaded into. Other rules or flags start over from an empty
+   * `dir`, and so do keep rules, which decide on an entry from the rest of the jar.
+   */
+  def shadeJarToDirectory(
+      rules: Seq[ShadeRule],
+      inputJar: Path,
+      dir: Path,
+      state: Path,
+      verbose: Boolean,
+      skipManifest: Boolean
+  ): Unit = {
+    val compiled = ruleSet(rules)
+    val fingerprint = EntryCache.fingerprint(
+      "dir",
+      EntryCache.buildOf(getClass),
+      compiled.getFingerprint,
+      Boolean.box(skipManifest)
+    )
+    val incremental = compiled.getKeeps.isEmpty
+    // entry name -> (sha-256 of the entry, what it was shaded into or "" if it was dropped)
+    val previous: Map[String, (String, String)] =
+      (if (incremental) readState(state, fingerprint) else None) match {
+        case Some(entries) => entries
+        case None =>
+          if (Files.exists(dir)) deleteRecursively(dir)
+          Map.empty
+      }
+    createDirectories(dir)
+    val (shader, _) = jarShader(compiled, None, inputJar, verbose, skipManifest, cache = None)
+    val current = mutable.LinkedHashMap[String, (String, String)]()
+    Using.jarFile(inputJar) { jar =>
+      jar.entries.asScala.foreach { entry =>
+        val name = entry.getName
+        if (entry.isDirectory) {
+          createDirectories(dir.resolve(name))
+          current(name) = ("", name)
+        } else {
+          val in = jar.getInputStream(entry)
+          val bytes = try Zip.toByteArray(in)
+          finally in.close()
+          val hash = Zip.sha256(bytes)
+          current(name) = previous.get(name) match {
+            case Some((`hash`, out)) if out.isEmpty || Files.exists(dir.resolve(out)) =>
+              (hash, out)
+            case _ =>
+              shader(bytes, name) match {
+                case Some((shadedBytes, shadedName)) =>
+                  val out = dir.resolve(shadedName)
+                  createDirectories(out.getParent)
+                  Files.write(out, shadedBytes)
+                  Zip.resetModifiedTime(out)
+                  (hash, shadedName)
+                case None => (hash, "")
+              }
+          }
+        }
+      }
+    }
+    val live = current.values.map(_._2).toSet
+    previous.values.foreach {
+      case (_, out) =>
+        if (out.nonEmpty && !live(out)) deleteWithEmptyParents(dir, dir.resolve(out), live)
+    }
+    Files.walk(dir).iterator().asScala.toList.foreach { x =>
+      if (x != dir && Files.isDirectory(x)) Zip.resetModifiedTime(x)
+    }
+    if (incremental) writeState(state, fingerprint, current)
+  }
+
+  private def readState(state: Path, fingerprint: String): Option[Map[String, (String, String)]] =
+    try {
+      Using.fileInputStream(state) { in0 =>
+        val in = new DataInputStream(in0)
+        if (in.readUTF() != fingerprint) None
+        else
+          Some((0 until in.readInt()).map { _ =>
+            val name = in.readUTF()
+            val hash = in.readUTF()
+            name -> (hash -> in.readUTF())
+          }.toMap)
+      }
+    } catch {
+      case _: IOException => None
+    }
+
+  private def writeState(
+      state: Path,
+      fingerprint: String,
+      entries: collection.Map[String, (String, String)]
+  ): Unit = {
+    createDirectories(state.getParent)
+    val temp = Files.createTempFile(state.getParent, state.getFileName.toString, ".tmp")
+    Using.fileOutputStream(append = false)(temp) { out0 =>
+      val out = new DataOutputStream(out0)
+      out.writeUTF(fingerprint)
+      out.writeInt(entries.size)
+      entries.foreach {
+        case (name, (hash, shadedName)) =>
+          out.writeUTF(name)
+          out.writeUTF(hash)
+          out.writeUTF(shadedName)
+      }
+      out.flush()
+    }
+    Files.move(temp, state, StandardCopyOption.REPLACE_EXISTING)
+  }
+
+  private def deleteWithEmptyParents(dir: Path, file: Path, live: Set[String]): Unit =
+    try {
+      if (file != dir && !live(dir.relativize(file).toString + "/") && Files.deleteIfExists(file))
+        deleteWithEmptyParents(dir, file.getParent, live)
+    } catch {
+      // a directory something else is still shaded into
+      case _: IOException => ()
+    }
+
+  private def deleteRecursively(dir: Path): Unit =
+    Files.walk(dir).iterator().asScala.toList.reverse.foreach(Files.delete)
+
+  /**
+   * Returns a function that shades one entry, given its bytes and name, into its new bytes and
+   * name, or `None` if the rules drop it. The function can be called from any number of threads
+   * at once: each call works on its own entry and its own copy of the remapper, and what the calls
+   * share, the remapper's caches and the record of renames, is concurrent.
+   *
+   * As the function sees one entry at a time, keep rules keep only the classes they match, not the
+   * classes those reach, as `shadeFile`, `shadeDirectory` and `shadeJarToDirectory` do.
+   */
   def bytecodeShader(
       rules: Seq[ShadeRule],
       verbose: Boolean,
       skipManifest: Boolean
+  ): (Array[Byte], String) => Option[(Array[Byte], String)] =
+    bytecodeShader(ruleSet(rules), verbose, skipManifest)
+
+  /**
+   * Same as above, for rules compiled once with `ruleSet`, which any number of calls can share.
+   */
+  def bytecodeShader(
+      rules: RuleSet,
+      verbose: Boolean,
+      skipManifest: Boolean
   ): (Array[Byte], String) => Option[(Array[Byte], String)] =
     if (rules.isEmpty)(bytes, mapping) => Some(bytes -> mapping)
-    else {
-      val jjrules = rules.flatMap { r =>
-        r.shadePattern match {
-          case ShadePattern.Rename(patterns) =>
-            patterns.map {
-              case (from, to) =>
-                val jrule = new Rule()
-                jrule.setPattern(from)
-                jrule.setResult(to)
-                jrule
-            }
-          case ShadePattern.Zap(patterns) =>
-            patterns.map { pattern =>
-              val jrule = new Zap()
-              jrule.setPattern(pattern)
-              jrule
-            }
-          case ShadePattern.Keep(patterns) =>
-            patterns.map { pattern =>
-              val jrule = new Keep()
-              jrule.setPattern(pattern)
-              jrule
-            }
-          case _ => Nil
-        }
+    else bytecodeShader(jjProcessor(rules, verbose, skipManifest), cache = None)
+
+  /**
+   * Compiles `rules` into a rule set that can be passed to any number of shading calls, and
+   * written to a file with `writeTo` to be read back with `RuleSet.readFrom`.
+   */
+  def ruleSet(rules: Seq[ShadeRule]): RuleSet = {
+    val resourceGlobs = rules.flatMap { r =>
+      r.shadePattern match {
+        case ShadePattern.RewriteContent(globs) => globs
+        case _                                  => Nil
       }
+    }
+    new RuleSet(jjPatterns(rules).asJava, resourceGlobs.asJava)
+  }
 
-      val proc = new JJProcessor(
-        patterns = jjrules,
-        verbose = verbose,
-        skipManifest = skipManifest,
-        misplacedClassStrategy = null
-      )
-      val excludes = proc.getExcludes
-
-      (bytes, mapping) =>
-        /*
-        jarjar MisplacedClassProcessor class transforms byte[] to a class using org.objectweb.asm.ClassReader.getClassName
-        which always translates class names containing '.' into '/', regardless of OS platform.
-        We need to transform any windows file paths in order for jarjar to match them properly and not omit them.
-         */
-        val sanitizedMapping = if (mapping.contains('\\')) mapping.replace('\\', '/') else mapping
-        val entry = new EntryStruct
-        entry.data = bytes
-        entry.name = sanitizedMapping
-        entry.time = -1
-        entry.skipTransform = false
-        if (!excludes.contains(entry.name) && proc.process(entry))
-          Some(entry.data -> entry.name)
-        else
-          None
+  private def jjPatterns(rules: Seq[ShadeRule]): Seq[PatternElement] =
+    rules.flatMap { r =>
+      r.shadePattern match {
+        case ShadePattern.Rename(patterns) =>
+          patterns.map {
+            case (from, to) =>
+              val jrule = new Rule()
+              jrule.setPattern(from)
+              jrule.setResult(to)
+              jrule
+          }
+        case ShadePattern.Zap(patterns) =>
+          patterns.map { pattern =>
+            val jrule = new Zap()
+            jrule.setPattern(pattern)
+            jrule
+          }
+        case ShadePattern.Keep(patterns) =>
+          patterns.map { pattern =>
+            val jrule = new Keep()
+            jrule.setPattern(pattern)
+            jrule
+          }
+        case _ => Nil
+      }
     }
 
+  private def jjProcessor(
+      rules: RuleSet,
+      verbose: Boolean,
+      skipManifest: Boolean
+  ): JJProcessor =
+    new JJProcessor(
+      ruleSet = rules,
+      verbose = verbose,
+      skipManifest = skipManifest,
+      misplacedClassStrategy = null
+    )
+
+  private def bytecodeShader(
+      proc: JJProcessor,
+      cache: Option[EntryCache]
+  ): (Array[Byte], String) => Option[(Array[Byte], String)] = {
+    val excludes = proc.getExcludes
+    val processor: JarProcessor = cache.fold[JarProcessor](proc)(proc.cachedBy)
+
+    (bytes, mapping) =>
+      val entry = new EntryStruct
+      entry.data = bytes
+      entry.name = sanitize(mapping)
+      entry.time = -1
+      entry.skipTransform = false
+      if (!excludes.contains(entry.name) && processor.process(entry))
+        Some(entry.data -> entry.name)
+      else
+        None
+  }
+
+  /*
+  jarjar MisplacedClassProcessor class transforms byte[] to a class using org.objectweb.asm.ClassReader.getClassName
+  which always translates class names containing '.' into '/', regardless of OS platform.
+  We need to transform any windows file paths in order for jarjar to match them properly and not omit them.
+   */
+  private def sanitize(mapping: String): String =
+    if (mapping.contains('\\')) mapping.replace('\\', '/') else mapping
+
   def parseRulesFile(rulesFile: Path): List[ShadeRule] =
     RulesFileParser.parse(rulesFile.toFile()).asScala.map(toShadeRule).toList
 
@@ -146,4 +773,10 @@ object ShadePattern {
   case class Rename(patterns: List[(String, String)]) extends ShadePattern
   case class Zap(patterns: List[String]) extends ShadePattern
   case class Keep(patterns: List[String]) extends ShadePattern
+
+  /**
+   * Renames the classes named in the text of the resources matching `resourceGlobs`, such as
+   * `META-INF/spring.factories` or `**.properties`, as well as in their names.
+   */
+  case class RewriteContent(resourceGlobs: List[String]) extends ShadePattern
 }
@@ -1,5 +1,6 @@
 package com.eed3si9n.jarjarabrams
 
+import com.eed3si9n.jarjar.util.{ CompressedEntryReader, JarWriter }
 import java.io.{
   BufferedInputStream,
   BufferedOutputStream,
@@ -34,6 +35,10 @@ object Using {
     file(f => new BufferedOutputStream(new FileOutputStream(f.toFile, append)))
   val jarOutputStream: Using[Path, JarOutputStream] =
     file(f => new JarOutputStream(new BufferedOutputStream(new FileOutputStream(f.toFile))))
+  val jarWriter: Using[Path, JarWriter] =
+    file(f => new JarWriter(f.toFile, true))
+  val compressedEntryReader: Using[Path, CompressedEntryReader] =
+    file(f => new CompressedEntryReader(f.toFile))
   val fileInputStream: Using[Path, InputStream] =
     file(f => new BufferedInputStream(new FileInputStream(f.toFile)))
   val jarFile: Using[Path, JarFile] =
@@ -1,11 +1,18 @@
 package com.eed3si9n.jarjarabrams
 
-import com.eed3si9n.jarjar.util.{ DuplicateJarEntryException, EntryStruct, IoUtil }
-import java.nio.file.{ Files, NoSuchFileException, Path }
+import com.eed3si9n.jarjar.util.{
+  CompressedEntry,
+  CompressedEntryReader,
+  DuplicateJarEntryException,
+  EntryStruct
+}
+import java.nio.file.{ Files, NoSuchFileException, Path, StandardCopyOption }
 import java.nio.file.attribute.FileTime
 import java.io.{ ByteArrayOutputStream, FileNotFoundException, InputStream, OutputStream }
 import java.security.MessageDigest
-import java.util.jar.JarEntry
+import java.util.ArrayDeque
+import java.util.concurrent.{ Callable, ForkJoinTask }
+import java.util.zip.Deflater
 import scala.annotation.tailrec
 import scala.collection.JavaConverters._
 import scala.collection.mutable
@@ -48,46 +55,298 @@ object Zip {
       outputJar: Path,
       resetTimestamp: Boolean,
       warnOnDuplicateClass: Boolean
+  )(f: EntryStruct => Option[EntryStruct]): Path =
+    transformJarFile(inputJar, outputJar, resetTimestamp, warnOnDuplicateClass, _ => true)(f)
+
+  /**
+   * Same as above, except that entries whose name fails `keepName` are dropped
+   * without reading their data.
+   */
+  def transformJarFile(
+      inputJar: Path,
+      outputJar: Path,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      keepName: String => Boolean
+  )(f: EntryStruct => Option[EntryStruct]): Path =
+    transformJarFile(inputJar, outputJar, resetTimestamp, warnOnDuplicateClass, keepName, 0)(f)
+
+  /**
+   * Same as above, except that up to `ahead` entries are transformed at once, as fork-join tasks,
+   * while the entries before them are written, which requires `f` to be safe to call from
+   * several threads. Entries are still written in the order of the input.
+   */
+  def transformJarFile(
+      inputJar: Path,
+      outputJar: Path,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      keepName: String => Boolean,
+      ahead: Int
+  )(f: EntryStruct => Option[EntryStruct]): Path =
+    transformJarFile(
+      inputJar,
+      outputJar,
+      resetTimestamp,
+      warnOnDuplicateClass,
+      keepName,
+      ahead,
+      first = Nil
+    )(f)
+
+  /**
+   * Same as above, except that the entries `first` are written ahead of those of the input,
+   * as they are.
+   */
+  def transformJarFile(
+      inputJar: Path,
+      outputJar: Path,
+      resetTimestamp: Boolean,
+      warnOnDuplicateClass: Boolean,
+      keepName: String => Boolean,
+      ahead: Int,
+      first: Seq[EntryStruct]
   )(f: EntryStruct => Option[EntryStruct]): Path =
     Using.jarFile(inputJar) { in =>
-      val tempJar = Files.createTempFile("jarjar", ".jar")
-      Using.jarOutputStream(tempJar) { out =>
-        val names = new mutable.HashSet[String]
-        in.entries.asScala.foreach { entry0 =>
-          val struct0 = entryStruct(
-            entry0.getName,
-            entry0.getTime,
-            toByteArray(in.getInputStream(entry0)),
-            skipTransform = false
-          )
-          f(struct0) match {
-            case Some(struct) =>
-              if (names.add(struct.name)) {
-                val entry = new JarEntry(struct.name)
-                val time =
-                  if (resetTimestamp) hardcodedZipTimestamp(struct.name)
-                  else enforceMinimum(struct.time)
-                entry.setTime(time)
-                entry.setCompressedSize(-1)
-                out.putNextEntry(entry)
-                out.write(struct.data)
-              } else if (struct.name.endsWith("/")) ()
+      // the input stays open while the output is written, so an in-place run goes through a sibling
+      val inPlace = Files.exists(outputJar) && Files.isSameFile(inputJar, outputJar)
+      val target =
+        if (inPlace) Files.createTempFile(outputJar.toAbsolutePath.getParent, "jarjar", ".jar")
+        else outputJar
+      val deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true)
+      try {
+        Using.compressedEntryReader(inputJar) { raw =>
+          // empty directories are dropped by the writer as it goes
+          Using.jarWriter(target) { out =>
+            val names = new mutable.HashSet[String]
+            def time(struct: EntryStruct): Long =
+              if (resetTimestamp) hardcodedZipTimestamp(struct.name)
+              else enforceMinimum(struct.time)
+            first.foreach { struct =>
+              names.add(struct.name)
+              out.write(CompressedEntry.deflate(struct.name, time(struct), struct.data, deflater))
+            }
+            def write(name0: String, data0: Array[Byte], result: Option[EntryStruct]): Unit =
+              result match {
+                case Some(struct) =>
+                  if (names.add(struct.name)) {
+                    out.write(compress(struct, time(struct), name0, data0, raw, deflater))
+                  } else if (struct.name.endsWith("/")) ()
+                  else {
+                    if (warnOnDuplicateClass)
+                      Console.err.println(
+                        s"in ${inputJar}, found duplicate files with name: ${struct.name}, ignoring due to specified option"
+                      )
+                    else throw new DuplicateJarEntryException(inputJar.toString, struct.name)
+                  }
+                case None => ()
+              }
+            // entries being transformed ahead, in the order they are written
+            val pending = new ArrayDeque[(String, Array[Byte], ForkJoinTask[Option[EntryStruct]])]
+            def writeNext(): Unit = {
+              val (name0, data0, task) = pending.poll()
+              write(name0, data0, task.join())
+            }
+            in.entries.asScala.filter(e => keepName(e.getName)).foreach { entry0 =>
+              val struct0 = entryStruct(
+                entry0.getName,
+                entry0.getTime,
+                toByteArray(in.getInputStream(entry0)),
+                skipTransform = false
+              )
+              val data0 = struct0.data
+              if (ahead <= 0) write(entry0.getName, data0, f(struct0))
               else {
-                if (warnOnDuplicateClass)
-                  Console.err.println(
-                    s"in ${inputJar}, found duplicate files with name: ${struct.name}, ignoring due to specified option"
-                  )
-                else throw new DuplicateJarEntryException(inputJar.toString, struct.name)
+                val task = ForkJoinTask.adapt(new Callable[Option[EntryStruct]] {
+                  def call(): Option[EntryStruct] = f(struct0)
+                })
+                pending.add((entry0.getName, data0, task.fork()))
+                if (pending.size > ahead) writeNext()
               }
-            case None => ()
+            }
+            while (!pending.isEmpty) writeNext()
           }
         }
+      } finally {
+        deflater.end()
       }
-      IoUtil.copyZipWithoutEmptyDirectories(tempJar.toFile, outputJar.toFile)
+      if (inPlace) Files.move(target, outputJar, StandardCopyOption.REPLACE_EXISTING)
       resetModifiedTime(outputJar)
       outputJar
     }
 
+  /**
+   * Writes the entries of every jar of `inputs` into `outputJar` in one pass, in the order of the
+   * inputs, with `transform(i)` giving which entries of the i-th input are read and what each
+   * becomes, as for `transformJarFile`. `transform` is called for every input up front and the
+   * entries of an input are transformed up to `ahead` at once, all as fork-join tasks.
+   *
+   * What is written under a name is decided by `merge`, given every entry transformed into one
+   * of that name. `rename` tells from the central directories which name each entry will have,
+   * and an entry is written as soon as it is transformed, unless another entry will have its name
+   * or `held` is true of its name: then it is held in memory until the last input with an entry
+   * of that name is done. The names `first` are merged from every input and written ahead of all
+   * the others, as a manifest has to be. An entry that `rename` does not foresee to have the name
+   * of one written already, as a misplaced class may, is a duplicate.
+   */
+  def mergeJarFiles(
+      inputs: Seq[Path],
+      outputJar: Path,
+      resetTimestamp: Boolean,
+      ahead: Int,
+      first: Seq[String],
+      held: String => Boolean,
+      rename: String => String
+  )(transform: Int => (String => Boolean, EntryStruct => Option[EntryStruct]))(
+      merge: (String, Seq[(Path, EntryStruct)]) => Option[EntryStruct]
+  ): Path = {
+    val inputNames = inputs.map(inputJar => list(inputJar).map(_._1).toSet)
+    // the number of entries that will have each name, and the last input with one of them
+    val count = mutable.HashMap[String, Int]().withDefaultValue(0)
+    val lastWith = mutable.HashMap[String, Int]()
+    inputNames.zipWithIndex.foreach {
+      case (names, i) =>
+        names.foreach { name =>
+          val renamed = rename(name)
+          count(renamed) += 1
+          lastWith(renamed) = i
+        }
+    }
+    val transforms = inputs.indices.map { i =>
+      ForkJoinTask
+        .adapt(new Callable[(String => Boolean, EntryStruct => Option[EntryStruct])] {
+          def call(): (String => Boolean, EntryStruct => Option[EntryStruct]) = transform(i)
+        })
+        .fork()
+    }
+    val deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true)
+    try {
+      // empty directories are dropped by the writer as it goes
+      Using.jarWriter(outputJar) { out =>
+        val names = new mutable.HashSet[String]
+        // the entries held under each name, and the last input that has one
+        val pending =
+          mutable.LinkedHashMap[String, (mutable.ArrayBuffer[(Path, EntryStruct)], Int)]()
+        def time(struct: EntryStruct): Long =
+          if (resetTimestamp) hardcodedZipTimestamp(struct.name)
+          else enforceMinimum(struct.time)
+        def add(struct: EntryStruct, candidates: Seq[(Path, EntryStruct)]): Boolean =
+          names.add(struct.name) || {
+            throw new DuplicateJarEntryException(candidates.map(_._1).mkString(", "), struct.name)
+          }
+        def writeMerged(name: String, candidates: Seq[(Path, EntryStruct)]): Unit =
+          merge(name, candidates).filter(add(_, candidates)).foreach { struct =>
+            out.write(CompressedEntry.deflate(struct.name, time(struct), struct.data, deflater))
+          }
+
+        first.foreach { name =>
+          val candidates = inputs.indices.filter(i => inputNames(i)(name)).flatMap { i =>
+            val (keepName, f) = transforms(i).join()
+            if (!keepName(name)) None
+            else
+              Using.jarFile(inputs(i)) { in =>
+                val entry0 = in.getEntry(name)
+                f(entryStruct(name, entry0.getTime, toByteArray(in.getInputStream(entry0))))
+                  .map(inputs(i) -> _)
+              }
+          }
+          if (candidates.nonEmpty) writeMerged(name, candidates)
+        }
+
+        inputs.zipWithIndex.foreach {
+          case (inputJar, i) =>
+            val (keepName, f) = transforms(i).join()
+            Using.jarFile(inputJar) { in =>
+              Using.compressedEntryReader(inputJar) { raw =>
+                def write(name0: String, data0: Array[Byte], result: Option[EntryStruct]): Unit =
+                  result.foreach { struct =>
+                    if (struct.name.endsWith("/")) {
+                      if (names.add(struct.name))
+                        out.write(compress(struct, time(struct), name0, data0, raw, deflater))
+                    } else if (
+                      count(struct.name) > 1 || held(struct.name) || pending.contains(struct.name)
+                    ) {
+                      val (candidates, last) = pending.getOrElse(
+                        struct.name,
+                        (mutable.ArrayBuffer[(Path, EntryStruct)](), i)
+                      )
+                      candidates += (inputJar -> struct)
+                      val lastInput = math.max(last, lastWith.getOrElse(struct.name, i))
+                      pending(struct.name) = (candidates, lastInput)
+                    } else {
+                      val candidates = Seq(inputJar -> struct)
+                      merge(struct.name, candidates).filter(add(_, candidates)).foreach { merged =>
+                        val t = time(merged)
+                        out.write(
+                          if (merged.data eq struct.data)
+                            compress(merged, t, name0, data0, raw, deflater)
+                          else CompressedEntry.deflate(merged.name, t, merged.data, deflater)
+                        )
+                      }
+                    }
+                  }
+                // entries being transformed ahead, in the order they are written
+                val window =
+                  new ArrayDeque[(String, Array[Byte], ForkJoinTask[Option[EntryStruct]])]
+                def writeNext(): Unit = {
+                  val (name0, data0, task) = window.poll()
+                  write(name0, data0, task.join())
+                }
+                in.entries.asScala
+                  .filter(e => !first.contains(e.getName) && keepName(e.getName))
+                  .foreach { entry0 =>
+                    val struct0 = entryStruct(
+                      entry0.getName,
+                      entry0.getTime,
+                      toByteArray(in.getInputStream(entry0))
+                    )
+                    val data0 = struct0.data
+                    if (ahead <= 0) write(entry0.getName, data0, f(struct0))
+                    else {
+                      val task = ForkJoinTask.adapt(new Callable[Option[EntryStruct]] {
+                        def call(): Option[EntryStruct] = f(struct0)
+                      })
+                      window.add((entry0.getName, data0, task.fork()))
+                      if (window.size > ahead) writeNext()
+                    }
+                  }
+                while (!window.isEmpty) writeNext()
+              }
+            }
+            // the names no later input has an entry of
+            pending.filter(_._2._2 <= i).keys.toList.foreach { name =>
+              writeMerged(name, pending.remove(name).get._1)
+            }
+        }
+      }
+    } finally {
+      deflater.end()
+    }
+    resetModifiedTime(outputJar)
+    outputJar
+  }
+
+  /**
+   * Deflates the entry, unless its data is still what was read from `name0`,
+   * in which case the deflated bytes stored in the input jar are reused.
+   */
+  private def compress(
+      struct: EntryStruct,
+      time: Long,
+      name0: String,
+      data0: Array[Byte],
+      raw: CompressedEntryReader,
+      deflater: Deflater
+  ): CompressedEntry = {
+    val copied =
+      if (java.util.Arrays.equals(struct.data, data0)) raw.read(name0, struct.data, time)
+      else null
+    if (copied != null) {
+      copied.name = struct.name
+      copied
+    } else CompressedEntry.deflate(struct.name, time, struct.data, deflater)
+  }
+
   private val localized2010Timestamp = localizeTimestamp(default2010Timestamp)
   private val localized2010TimestampPlus2s = localizeTimestamp(
     default2010Timestamp + minimumTimestampIncrement
@@ -182,7 +441,7 @@ object Zip {
     }
   }
 
-  private def toByteArray(in: InputStream): Array[Byte] = {
+  def toByteArray(in: InputStream): Array[Byte] = {
     val baos = new ByteArrayOutputStream()
     transfer(in, baos)
     baos.toByteArray()
@@ -202,6 +461,9 @@ object Zip {
       toHexString(digest.digest())
     }
 
+  def sha256(bytes: Array[Byte]): String =
+    toHexString(MessageDigest.getInstance("SHA-256").digest(bytes))
+
   private def toHexString(bytes: Array[Byte]): String = {
     val buffer = new StringBuilder(bytes.length * 2)
     for { i <- bytes.indices } {
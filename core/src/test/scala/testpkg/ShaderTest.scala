@@ -2,7 +2,13 @@ package testpkg
 
 import verify._
 import java.nio.file.{ Files, Path, Paths }
-import com.eed3si9n.jarjarabrams.{ Shader, Zip }
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.{ Callable, Executors }
+import java.util.jar.{ Attributes, JarEntry, JarOutputStream, Manifest }
+import com.eed3si9n.jarjar.util.{ DuplicateJarEntryException, EntryCache }
+import com.eed3si9n.jarjarabrams.{ MergeStrategy, ModuleCoordinate, ShadeRule, Shader, Using, Zip }
+import org.objectweb.asm.{ ClassWriter, Opcodes }
+import scala.collection.JavaConverters._
 
 object ShaderTest extends BasicTestSuite {
   final val byteBuddyJar = "example/byte-buddy-agent.jar"
@@ -46,11 +52,398 @@ object ShaderTest extends BasicTestSuite {
     )
   }
 
+  test("shade shapeless through a cache") {
+    withTempDirectory("cache") { dir =>
+      val cache = new EntryCache(dir, 1L << 30)
+      // the first run fills the cache, the second copies the jar from it
+      for (_ <- 1 to 2) {
+        testShading(
+          Paths.get(shapelessJar),
+          resetTimestamp = false,
+          expectedClass = expectedShapelessClass,
+          expectedSha = "b0675ab6b2171faad08de45ccbc4674df569e03b434745ebd9e7442cd7846796",
+          cache = Some(cache)
+        )
+      }
+      // other flags miss the jar, but read every entry from the cache
+      testShading(
+        Paths.get(shapelessJar),
+        resetTimestamp = true,
+        expectedClass = expectedShapelessClass,
+        expectedSha = "68ac892591bb30eb2ba5c0c2c3195e7529e15bacd221b8bb3d75b154f5a4ce76",
+        cache = Some(cache)
+      )
+    }
+  }
+
+  test("shade a jar from a cache as it is shaded anew") {
+    val rules = Shader.parseRulesFile(Paths.get("example/shade.rules"))
+    withTempDirectory("cache") { dir =>
+      val cache = Some(new EntryCache(dir, 1L << 30))
+      // the first run shades the jar, the second copies it from the cache
+      val outputs = (1 to 2).map { _ =>
+        val tempJar = Files.createTempFile("test", ".jar")
+        Shader.shadeFile(
+          rules,
+          Paths.get(byteBuddyJar),
+          tempJar,
+          verbose = false,
+          skipManifest = false,
+          resetTimestamp = true,
+          warnOnDuplicateClass = false,
+          cache
+        )
+        (Zip.sha256(tempJar), Files.getLastModifiedTime(tempJar))
+      }
+      assert(outputs(0) == outputs(1))
+      assert(outputs(0)._1 == "0db0b1300533c06a934dca1e7016f6dc2d432c66f1927102d6f6b49086dcfddb")
+    }
+  }
+
+  test("shade a jar into a directory incrementally") {
+    val rules = Shader.parseRulesFile(Paths.get("example/shade.rules"))
+    withTempDirectory("shaded") { dir =>
+      withTempDirectory("state") { stateDir =>
+        val state = stateDir.resolve("entries")
+        Shader.shadeJarToDirectory(
+          rules,
+          Paths.get(byteBuddyJar),
+          dir,
+          state,
+          verbose = false,
+          skipManifest = true
+        )
+        assert(Files.exists(dir.resolve(expectedByteBuddyClass)))
+
+        val smallerJar = Files.createTempFile("test", ".jar")
+        Zip.transformJarFile(
+          Paths.get(byteBuddyJar),
+          smallerJar,
+          resetTimestamp = false,
+          warnOnDuplicateClass = false
+        ) { struct =>
+          if (struct.name == "net/bytebuddy/agent/Attacher.class") None
+          else Some(struct)
+        }
+        Shader.shadeJarToDirectory(
+          rules,
+          smallerJar,
+          dir,
+          state,
+          verbose = false,
+          skipManifest = true
+        )
+        assert(!Files.exists(dir.resolve(expectedByteBuddyClass)))
+
+        withTempDirectory("shaded") { freshDir =>
+          withTempDirectory("state") { freshState =>
+            Shader.shadeJarToDirectory(
+              rules,
+              smallerJar,
+              freshDir,
+              freshState.resolve("entries"),
+              verbose = false,
+              skipManifest = true
+            )
+            val files = Shader.makeMappings(dir)
+            assert(files.map(_._2).sorted == Shader.makeMappings(freshDir).map(_._2).sorted)
+            files.foreach {
+              case (file, name) =>
+                if (!Files.isDirectory(file)) {
+                  val expected = Files.readAllBytes(freshDir.resolve(name))
+                  assert(Files.readAllBytes(file).sameElements(expected))
+                }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  test("shade entries from several threads at once") {
+    val rules = Shader.parseRulesFile(Paths.get("example/shade.rules"))
+    val entries = Using.jarFile(Paths.get(shapelessJar)) { jar =>
+      jar.entries.asScala.filterNot(_.isDirectory).toVector.map { entry =>
+        val in = jar.getInputStream(entry)
+        try entry.getName -> Zip.toByteArray(in)
+        finally in.close()
+      }
+    }
+    def shade(
+        shader: (Array[Byte], String) => Option[(Array[Byte], String)],
+        name: String,
+        bytes: Array[Byte]
+    ): Option[(String, String)] =
+      shader(bytes, name).map { case (b, n) => n -> Zip.sha256(b) }
+
+    val serialShader = Shader.bytecodeShader(rules, verbose = false, skipManifest = false)
+    val expected = entries.map { case (name, bytes) => shade(serialShader, name, bytes) }
+    val shader = Shader.bytecodeShader(rules, verbose = false, skipManifest = false)
+    val pool = Executors.newFixedThreadPool(8)
+    try {
+      val futures = entries.map {
+        case (name, bytes) =>
+          pool.submit(new Callable[Option[(String, String)]] {
+            def call(): Option[(String, String)] = shade(shader, name, bytes)
+          })
+      }
+      assert(futures.map(_.get) == expected)
+    } finally pool.shutdown()
+  }
+
+  test("shade modules with the rules that target them") {
+    val byteBuddy = ModuleCoordinate("net.bytebuddy", "byte-buddy-agent", "1.0")
+    val shapeless = ModuleCoordinate("com.chuusai", "shapeless_2.12", "2.3.2")
+    val rules = Seq(
+      ShadeRule.rename("net.bytebuddy.agent.**" -> "foo.@1").inModuleCoordinates(byteBuddy),
+      ShadeRule.rename("shapeless.**" -> "bar.shapeless.@1").inModuleCoordinates(shapeless),
+      ShadeRule.zap("shapeless.**").inProject
+    )
+    val byteBuddyOut = Files.createTempFile("test", ".jar")
+    val shapelessOut = Files.createTempFile("test", ".jar")
+    val projectOut = Files.createTempFile("test", ".jar")
+    Shader.shadeModules(
+      rules,
+      Seq(
+        (Some(byteBuddy), Paths.get(byteBuddyJar), byteBuddyOut),
+        (Some(shapeless), Paths.get(shapelessJar), shapelessOut),
+        (None, Paths.get(shapelessJar), projectOut)
+      ),
+      verbose = false,
+      skipManifest = false,
+      resetTimestamp = false,
+      warnOnDuplicateClass = false,
+      cache = None,
+      parallelism = 2
+    )
+    assert(
+      Zip.sha256(byteBuddyOut) == "42454701a0b53a13af17d015c1785ef5ea342d8c324315ed17d80831cba98be3"
+    )
+    assert(
+      Zip.sha256(shapelessOut) == "b0675ab6b2171faad08de45ccbc4674df569e03b434745ebd9e7442cd7846796"
+    )
+    assert(!Zip.list(projectOut).exists(_._1.startsWith("shapeless/")))
+  }
+
+  test("shade files on one pool, reporting the jars that fail") {
+    val rules = Shader.parseRulesFile(Paths.get("example/shade.rules"))
+    val byteBuddyOut = Files.createTempFile("test", ".jar")
+    val shapelessOut = Files.createTempFile("test", ".jar")
+    val missing = Paths.get("target/missing.jar")
+    val failures = Shader.shadeFiles(
+      rules,
+      Seq(
+        Paths.get(byteBuddyJar) -> byteBuddyOut,
+        missing -> Files.createTempFile("test", ".jar"),
+        Paths.get(shapelessJar) -> shapelessOut
+      ),
+      parallelism = 4
+    )
+    assert(failures.map(_._1) == Seq(missing))
+    assert(
+      Zip.sha256(byteBuddyOut) == "42454701a0b53a13af17d015c1785ef5ea342d8c324315ed17d80831cba98be3"
+    )
+    assert(
+      Zip.sha256(shapelessOut) == "b0675ab6b2171faad08de45ccbc4674df569e03b434745ebd9e7442cd7846796"
+    )
+  }
+
+  test("shade a jar with a manifest of its own") {
+    val rules = Shader.parseRulesFile(Paths.get("example/shade.rules"))
+    val manifest = new Manifest
+    manifest.getMainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0")
+    manifest.getMainAttributes.putValue("Automatic-Module-Name", "foo.agent")
+    val tempJar = Files.createTempFile("test", ".jar")
+    Shader.shadeFile(
+      rules,
+      Paths.get(byteBuddyJar),
+      tempJar,
+      verbose = false,
+      resetTimestamp = true,
+      warnOnDuplicateClass = false,
+      cache = None,
+      manifest
+    )
+    val entries = Zip.list(tempJar).map(_._1)
+    assert(entries.head == "META-INF/MANIFEST.MF")
+    assert(entries.count(_ == "META-INF/MANIFEST.MF") == 1)
+    assert(entries.contains(expectedByteBuddyClass))
+    val written = Using.jarFile(tempJar)(_.getManifest.getMainAttributes)
+    assert(written.getValue("Automatic-Module-Name") == "foo.agent")
+  }
+
+  test("rewrite the class names in the text of resources") {
+    val shader = Shader.bytecodeShader(
+      Seq(
+        ShadeRule.rename("org.example.**" -> "shaded.@1").inAll,
+        ShadeRule.rewriteContent("META-INF/spring.factories").inAll
+      ),
+      verbose = false,
+      skipManifest = false
+    )
+    def shade(text: String, name: String): Option[(String, String)] =
+      shader(text.getBytes(StandardCharsets.UTF_8), name).map {
+        case (bytes, shadedName) => (new String(bytes, StandardCharsets.UTF_8), shadedName)
+      }
+    assert(
+      shade("org.example.Config=org.example.A\n", "META-INF/spring.factories") ==
+        Some(("shaded.Config=shaded.A\n", "META-INF/spring.factories"))
+    )
+    assert(
+      shade("org.example.A\n", "META-INF/other.factories") ==
+        Some(("org.example.A\n", "META-INF/other.factories"))
+    )
+  }
+
+  test("keep the classes the roots reach, except one entry at a time") {
+    val rules = Seq(ShadeRule.keep("org.example.Root").inAll)
+    val classes = Seq(
+      "org/example/Root.class" -> classBytes("org/example/Root", "org/example/Base"),
+      "org/example/Base.class" -> classBytes("org/example/Base", "java/lang/Object"),
+      "org/example/Unused.class" -> classBytes("org/example/Unused", "org/example/Base")
+    )
+    val kept = Set("org/example/Root.class", "org/example/Base.class")
+    withTempDirectory("shaded") { dir =>
+      val mappings = classes.map {
+        case (name, bytes) =>
+          val file = dir.resolve(name)
+          Files.createDirectories(file.getParent)
+          Files.write(file, bytes)
+          file -> name
+      }
+      Shader.shadeDirectory(rules, dir, mappings, verbose = false)
+      assert(Files.exists(dir.resolve("org/example/Base.class")))
+      assert(!Files.exists(dir.resolve("org/example/Unused.class")))
+    }
+
+    val jar = Files.createTempFile("test", ".jar")
+    val out = new JarOutputStream(Files.newOutputStream(jar))
+    try classes.foreach {
+      case (name, bytes) =>
+        out.putNextEntry(new JarEntry(name))
+        out.write(bytes)
+        out.closeEntry()
+    } finally out.close()
+    val shadedJar = Files.createTempFile("test", ".jar")
+    Shader.shadeFile(
+      rules,
+      jar,
+      shadedJar,
+      verbose = false,
+      skipManifest = false,
+      resetTimestamp = false,
+      warnOnDuplicateClass = false
+    )
+    assert(Zip.list(shadedJar).map(_._1).toSet == kept)
+    withTempDirectory("shaded") { dir =>
+      withTempDirectory("state") { state =>
+        Shader.shadeJarToDirectory(
+          rules,
+          jar,
+          dir,
+          state.resolve("entries"),
+          verbose = false,
+          skipManifest = false
+        )
+        assert(Files.exists(dir.resolve("org/example/Base.class")))
+        assert(!Files.exists(dir.resolve("org/example/Unused.class")))
+      }
+    }
+
+    val shader = Shader.bytecodeShader(rules, verbose = false, skipManifest = false)
+    val shaded = classes.flatMap { case (name, bytes) => shader(bytes, name) }
+    assert(shaded.map(_._2) == Seq("org/example/Root.class"))
+  }
+
+  test("assemble jars into one, joining their service providers") {
+    val rules = Shader.parseRulesFile(Paths.get("example/shade.rules"))
+    val first = writeJar(
+      "META-INF/services/a.Service" -> "a.Impl\n",
+      "conflict.txt" -> "first"
+    )
+    val second = writeJar(
+      "META-INF/services/a.Service" -> "b.Impl\na.Impl\n",
+      "conflict.txt" -> "second"
+    )
+    val inputs = Seq(first, second, Paths.get(byteBuddyJar))
+    val out = Files.createTempFile("test", ".jar")
+    Shader.assemble(
+      inputs,
+      rules,
+      name => if (name == "conflict.txt") MergeStrategy.last else MergeStrategy.default(name),
+      out
+    )
+    val entries = Using.jarFile(out) { jar =>
+      jar.entries.asScala.toList.map { entry =>
+        val data = Zip.toByteArray(jar.getInputStream(entry))
+        entry.getName -> new String(data, StandardCharsets.UTF_8)
+      }
+    }
+    assert(entries.map(_._1).contains(expectedByteBuddyClass))
+    assert(entries.map(_._1).count(_ == "META-INF/MANIFEST.MF") == 1)
+    assert(entries.head._1 == "META-INF/MANIFEST.MF")
+    assert(entries.toMap.get("META-INF/services/a.Service") == Some("a.Impl\nb.Impl\n"))
+    assert(entries.toMap.get("conflict.txt") == Some("second"))
+
+    intercept[DuplicateJarEntryException] {
+      Shader.assemble(inputs, rules, MergeStrategy.default, out)
+    }
+    ()
+  }
+
+  test("assemble entries that only share a name once shaded") {
+    val rules = Seq(ShadeRule.rename("org.example.**" -> "shaded.@1").inAll)
+    val first = writeJar("org/example/conf.txt" -> "first\n")
+    val second = writeJar("shaded/conf.txt" -> "second\n")
+    val out = Files.createTempFile("test", ".jar")
+    Shader.assemble(Seq(first, second), rules, _ => MergeStrategy.concat, out)
+    val entries = Using.jarFile(out) { jar =>
+      jar.entries.asScala.toList.map { entry =>
+        val data = Zip.toByteArray(jar.getInputStream(entry))
+        entry.getName -> new String(data, StandardCharsets.UTF_8)
+      }
+    }
+    assert(entries == List("shaded/conf.txt" -> "first\nsecond\n"))
+  }
+
+  def writeJar(entries: (String, String)*): Path = {
+    val jar = Files.createTempFile("test", ".jar")
+    val out = new JarOutputStream(Files.newOutputStream(jar))
+    try {
+      entries.foreach {
+        case (name, content) =>
+          out.putNextEntry(new JarEntry(name))
+          out.write(content.getBytes(StandardCharsets.UTF_8))
+          out.closeEntry()
+      }
+    } finally out.close()
+    jar
+  }
+
+  def classBytes(name: String, superName: String): Array[Byte] = {
+    val cw = new ClassWriter(0)
+    cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null)
+    cw.visitEnd()
+    cw.toByteArray
+  }
+
+  // runs f on a new temporary directory, deleted with everything in it afterwards
+  def withTempDirectory[A](prefix: String)(f: Path => A): A = {
+    val dir = Files.createTempDirectory(prefix)
+    try f(dir)
+    finally {
+      val paths = Files.walk(dir)
+      try paths.iterator.asScala.toList.reverse.foreach(Files.deleteIfExists)
+      finally paths.close()
+    }
+  }
+
   def testShading(
       inJar: Path,
       resetTimestamp: Boolean,
       expectedClass: String,
-      expectedSha: String
+      expectedSha: String,
+      cache: Option[EntryCache] = None
   ): Unit = {
     val tempJar = Files.createTempFile("test", ".jar")
     val rules = Shader.parseRulesFile(Paths.get("example/shade.rules"))
@@ -61,7 +454,8 @@ object ShaderTest extends BasicTestSuite {
       verbose = false,
       skipManifest = false,
       resetTimestamp,
-      warnOnDuplicateClass = false
+      warnOnDuplicateClass = false,
+      cache
     )
     val entries = Zip.list(tempJar).map(_._1)
     assert(entries.contains(expectedClass))
@@ -0,0 +1,349 @@
+package com.eed3si9n.jarjar;
+
+import java.io.ByteArrayOutputStream;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * Renames the classes a class file refers to by rewriting the strings of its constant pool alone,
+ * and copying every other byte of the class as it is. Nothing is visited, frames are not expanded
+ * and maxs are not computed again, so a class costs about as much as reading it once.
+ *
+ * <p>The result is the same class as {@link RemappingClassTransformer} followed by
+ * {@link MethodSignatureProcessor} would write, for a remapper that renames classes and leaves
+ * member names alone, as {@link PackageRemapper} does. Each string is mapped the way the place
+ * that uses it would be: a class name with <code>mapType</code>, a descriptor with
+ * <code>mapDesc</code>, a string constant with <code>mapValue</code>, and so on. Where that cannot
+ * be done in place, {@link #remap} returns <code>null</code> and the class is left to ASM: module
+ * descriptors, classes calling one of the methods whose string argument
+ * {@link MethodSignatureProcessor} rewrites, and strings used in two places that map them
+ * differently.
+ */
+class ConstantPoolRemapper
+{
+    private final byte[] b;
+    private final ClassReader reader;
+    private final Remapper remapper;
+    private final String[] strings;
+    private final String[] mapped;
+    private final char[] buf;
+
+    private ConstantPoolRemapper(byte[] b, ClassReader reader, Remapper remapper) {
+        this.b = b;
+        this.reader = reader;
+        this.remapper = remapper;
+        strings = new String[reader.getItemCount()];
+        mapped = new String[reader.getItemCount()];
+        buf = new char[reader.getMaxStringLength()];
+    }
+
+    /**
+     * Returns the class in <code>b</code>, read by <code>reader</code>, with its classes renamed by
+     * <code>remapper</code>; <code>b</code> itself if nothing was renamed, or <code>null</code> if
+     * the class has to be rewritten with ASM instead.
+     */
+    public static byte[] remap(byte[] b, ClassReader reader, Remapper remapper) {
+        try {
+            return new ConstantPoolRemapper(b, reader, remapper).remap();
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    private byte[] remap() {
+        if ((reader.getAccess() & Opcodes.ACC_MODULE) != 0)
+            throw new Unsupported();
+        for (int i = 1, n = reader.getItemCount(); i < n; i++) {
+            int offset = reader.getItem(i);
+            // the second slot of a long or double has no offset
+            if (offset == 0)
+                continue;
+            switch (b[offset - 1]) {
+            case 7: // Class
+                mapType(offset);
+                break;
+            case 8: // String
+                mapValue(offset);
+                break;
+            case 12: { // NameAndType
+                String name = keep(offset);
+                if (MethodSignatureProcessor.rewritesArgumentOf(name))
+                    throw new Unsupported();
+                String desc = string(offset + 2);
+                use(offset + 2, desc.startsWith("(") ?
+                    remapper.mapMethodDesc(desc) :
+                    remapper.mapDesc(desc));
+                break;
+            }
+            case 16: // MethodType
+                use(offset, remapper.mapMethodDesc(string(offset)));
+                break;
+            case 19: // Module
+            case 20: // Package
+                throw new Unsupported();
+            default:
+                // numbers, member references, method handles and dynamic constants only point
+                // at the entries above
+            }
+        }
+
+        int p = reader.header + 6;
+        p += 2 + 2 * readUnsignedShort(p);
+        // the fields, then the methods
+        for (int j = 0; j < 2; j++) {
+            int members = readUnsignedShort(p);
+            p += 2;
+            for (int k = 0; k < members; k++) {
+                keep(p + 2);
+                String desc = string(p + 4);
+                if (j == 0) {
+                    use(p + 4, remapper.mapDesc(desc));
+                    p = attributes(p + 6, true);
+                } else {
+                    use(p + 4, remapper.mapMethodDesc(desc));
+                    p = attributes(p + 6, false);
+                }
+            }
+        }
+        attributes(p, false);
+        return write();
+    }
+
+    /**
+     * Maps the strings the attributes at <code>p</code> use and returns the offset after them.
+     * <code>typeSignature</code> is whether a <code>Signature</code> among them is that of a
+     * field or record component rather than of a class or method.
+     */
+    private int attributes(int p, boolean typeSignature) {
+        int count = readUnsignedShort(p);
+        p += 2;
+        for (int i = 0; i < count; i++) {
+            String name = keep(p);
+            int start = p + 6;
+            p = start + reader.readInt(p + 2);
+            if ("Signature".equals(name)) {
+                use(start, remapper.mapSignature(string(start), typeSignature));
+            } else if ("Code".equals(name)) {
+                int q = start + 8 + reader.readInt(start + 4);
+                attributes(q + 2 + 8 * readUnsignedShort(q), false);
+            } else if ("LocalVariableTable".equals(name)) {
+                for (int j = 0, q = start + 2, n = readUnsignedShort(start); j < n; j++, q += 10) {
+                    keep(q + 4);
+                    use(q + 6, remapper.mapDesc(string(q + 6)));
+                }
+            } else if ("LocalVariableTypeTable".equals(name)) {
+                for (int j = 0, q = start + 2, n = readUnsignedShort(start); j < n; j++, q += 10) {
+                    keep(q + 4);
+                    use(q + 6, remapper.mapSignature(string(q + 6), true));
+                }
+            } else if ("InnerClasses".equals(name)) {
+                for (int j = 0, q = start + 2, n = readUnsignedShort(start); j < n; j++, q += 8) {
+                    if (readUnsignedShort(q + 4) != 0) {
+                        use(q + 4, remapper.mapInnerClassName(
+                            reader.readClass(q, buf), reader.readClass(q + 2, buf), string(q + 4)));
+                    }
+                }
+            } else if ("SourceFile".equals(name)) {
+                keep(start);
+            } else if ("RuntimeVisibleAnnotations".equals(name)
+                || "RuntimeInvisibleAnnotations".equals(name)) {
+                for (int j = 0, q = start + 2, n = readUnsignedShort(start); j < n; j++)
+                    q = annotation(q);
+            } else if ("RuntimeVisibleParameterAnnotations".equals(name)
+                || "RuntimeInvisibleParameterAnnotations".equals(name)) {
+                int q = start + 1;
+                for (int j = 0, n = reader.readByte(start); j < n; j++) {
+                    int annotations = readUnsignedShort(q);
+                    q += 2;
+                    for (int k = 0; k < annotations; k++)
+                        q = annotation(q);
+                }
+            } else if ("RuntimeVisibleTypeAnnotations".equals(name)
+                || "RuntimeInvisibleTypeAnnotations".equals(name)) {
+                for (int j = 0, q = start + 2, n = readUnsignedShort(start); j < n; j++)
+                    q = annotation(typePath(q));
+            } else if ("AnnotationDefault".equals(name)) {
+                elementValue(start);
+            } else if ("Record".equals(name)) {
+                int q = start + 2;
+                for (int j = 0, n = readUnsignedShort(start); j < n; j++) {
+                    keep(q);
+                    use(q + 2, remapper.mapDesc(string(q + 2)));
+                    q = attributes(q + 4, true);
+                }
+            } else if ("MethodParameters".equals(name)) {
+                for (int j = 0, q = start + 1, n = reader.readByte(start); j < n; j++, q += 4) {
+                    if (readUnsignedShort(q) != 0)
+                        keep(q);
+                }
+            }
+            // the other attributes only point at classes, member references and constants, or
+            // at nothing in the constant pool
+        }
+        return p;
+    }
+
+    private int annotation(int p) {
+        use(p, remapper.mapDesc(string(p)));
+        int pairs = readUnsignedShort(p + 2);
+        p += 4;
+        for (int i = 0; i < pairs; i++) {
+            keep(p);
+            p = elementValue(p + 2);
+        }
+        return p;
+    }
+
+    private int elementValue(int p) {
+        switch (reader.readByte(p)) {
+        case 's':
+            use(p + 1, (String) remapper.mapValue(string(p + 1)));
+            return p + 3;
+        case 'c':
+            use(p + 1, ((Type) remapper.mapValue(Type.getType(string(p + 1)))).getDescriptor());
+            return p + 3;
+        case 'e':
+            use(p + 1, remapper.mapDesc(string(p + 1)));
+            keep(p + 3);
+            return p + 5;
+        case '@':
+            return annotation(p + 1);
+        case '[': {
+            int q = p + 3;
+            for (int i = 0, n = readUnsignedShort(p + 1); i < n; i++)
+                q = elementValue(q);
+            return q;
+        }
+        default:
+            return p + 3;
+        }
+    }
+
+    /**
+     * Skips the target and path of the type annotation at <code>p</code>.
+     */
+    private int typePath(int p) {
+        int target = reader.readByte(p);
+        switch (target) {
+        case 0x00: case 0x01: case 0x16:
+            p += 2;
+            break;
+        case 0x13: case 0x14: case 0x15:
+            p += 1;
+            break;
+        case 0x40: case 0x41:
+            p += 3 + 6 * readUnsignedShort(p + 1);
+            break;
+        case 0x47: case 0x48: case 0x49: case 0x4A: case 0x4B:
+            p += 4;
+            break;
+        case 0x10: case 0x11: case 0x12: case 0x17:
+        case 0x42: case 0x43: case 0x44: case 0x45: case 0x46:
+            p += 3;
+            break;
+        default:
+            throw new Unsupported();
+        }
+        return p + 1 + 2 * reader.readByte(p);
+    }
+
+    private void mapType(int p) {
+        use(p, remapper.mapType(string(p)));
+    }
+
+    private void mapValue(int p) {
+        use(p, (String) remapper.mapValue(string(p)));
+    }
+
+    private String keep(int p) {
+        String value = string(p);
+        use(p, value);
+        return value;
+    }
+
+    /**
+     * Records that the string whose index is at <code>p</code> becomes <code>value</code>.
+     */
+    private void use(int p, String value) {
+        int index = readUnsignedShort(p);
+        if (mapped[index] == null)
+            mapped[index] = value;
+        else if (!mapped[index].equals(value))
+            throw new Unsupported();
+    }
+
+    /**
+     * Returns the string whose index is at <code>p</code>.
+     */
+    private String string(int p) {
+        int index = readUnsignedShort(p);
+        String value = strings[index];
+        if (value == null) {
+            int offset = reader.getItem(index);
+            if (offset == 0 || b[offset - 1] != 1)
+                throw new IllegalArgumentException("not a string: " + index);
+            value = strings[index] = reader.readUTF8(p, buf);
+        }
+        return value;
+    }
+
+    private int readUnsignedShort(int p) {
+        return reader.readUnsignedShort(p);
+    }
+
+    private byte[] write() {
+        ByteArrayOutputStream out = null;
+        int copied = 0;
+        for (int i = 1; i < mapped.length; i++) {
+            if (mapped[i] == null || mapped[i].equals(strings[i]))
+                continue;
+            if (out == null)
+                out = new ByteArrayOutputStream(b.length + 256);
+            int offset = reader.getItem(i);
+            out.write(b, copied, offset - copied);
+            writeUtf(out, mapped[i]);
+            copied = offset + 2 + readUnsignedShort(offset);
+        }
+        if (out == null)
+            return b;
+        out.write(b, copied, b.length - copied);
+        return out.toByteArray();
+    }
+
+    private static void writeUtf(ByteArrayOutputStream out, String value) {
+        int length = 0;
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            length += (c >= 0x01 && c <= 0x7F) ? 1 : (c <= 0x7FF) ? 2 : 3;
+        }
+        if (length > 65535)
+            throw new Unsupported();
+        out.write(length >>> 8);
+        out.write(length);
+        // modified UTF-8
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x01 && c <= 0x7F) {
+                out.write(c);
+            } else if (c <= 0x7FF) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static class Unsupported extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+}
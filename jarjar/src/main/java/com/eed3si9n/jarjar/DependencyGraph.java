@@ -0,0 +1,116 @@
+package com.eed3si9n.jarjar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The class dependencies recorded by {@link KeepProcessor}, with each class name interned to an
+ * int id and the edges of all classes kept in one int array, so that a jar of 100k classes does
+ * not need a set of strings per class. Classes can be added from several threads at once.
+ */
+class DependencyGraph
+{
+    private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    // for each class read, where its edges start in edges and how many there are
+    private int[] start = new int[64];
+    private int[] count = new int[64];
+    private int[] edges = new int[1024];
+    private int size;
+    private final BitSet read = new BitSet();
+    private final BitSet roots = new BitSet();
+
+    /**
+     * Records the classes that <code>name</code> depends on, replacing any recorded before.
+     */
+    public synchronized void setDependencies(String name, Collection<String> dependencies) {
+        int id = id(name);
+        int n = dependencies.size();
+        // the edges recorded before are written over where they fit, or where they are the last
+        boolean last = read.get(id) && start[id] + count[id] == size;
+        int at = read.get(id) && (last || n <= count[id]) ? start[id] : size;
+        if (edges.length < at + n)
+            edges = Arrays.copyOf(edges, Math.max(edges.length * 2, at + n));
+        start[id] = at;
+        count[id] = n;
+        for (String dependency : dependencies)
+            edges[at++] = id(dependency);
+        if (last || at > size)
+            size = at;
+        read.set(id);
+    }
+
+    public synchronized void addRoot(String name) {
+        roots.set(id(name));
+    }
+
+    /**
+     * Returns the classes reachable from the roots, the roots included, as a set of ids.
+     */
+    public synchronized BitSet reachable() {
+        BitSet result = new BitSet(names.size());
+        int[] stack = new int[Math.max(16, roots.cardinality())];
+        int top = 0;
+        for (int id = roots.nextSetBit(0); id >= 0; id = roots.nextSetBit(id + 1)) {
+            result.set(id);
+            stack[top++] = id;
+        }
+        while (top > 0) {
+            int id = stack[--top];
+            if (!read.get(id))
+                continue;
+            for (int i = start[id], end = start[id] + count[id]; i < end; i++) {
+                int next = edges[i];
+                if (!result.get(next)) {
+                    result.set(next);
+                    if (top == stack.length)
+                        stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = next;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names of the classes read that are not in <code>reachable</code>.
+     */
+    public synchronized Set<String> unreachable(BitSet reachable) {
+        BitSet rest = (BitSet) read.clone();
+        rest.andNot(reachable);
+        Set<String> result = new HashSet<String>();
+        for (int id = rest.nextSetBit(0); id >= 0; id = rest.nextSetBit(id + 1))
+            result.add(names.get(id));
+        return result;
+    }
+
+    /**
+     * Whether <code>name</code> is in <code>set</code>; safe to call concurrently with adding
+     * classes.
+     */
+    public boolean contains(BitSet set, String name) {
+        Integer id = ids.get(name);
+        return id != null && set.get(id);
+    }
+
+    private int id(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+            if (id == start.length) {
+                start = Arrays.copyOf(start, id * 2);
+                count = Arrays.copyOf(count, id * 2);
+            }
+        }
+        return id;
+    }
+}
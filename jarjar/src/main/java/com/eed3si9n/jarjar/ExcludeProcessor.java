@@ -36,5 +36,13 @@ class ExcludeProcessor implements JarProcessor
             System.err.println("Excluding " + struct.name);
         return toKeep;
     }
+
+    public NameDecision processName(String name) {
+        if (!excludes.contains(name))
+            return NameDecision.PASS;
+        if (verbose)
+            System.err.println("Excluding " + name);
+        return NameDecision.DROP;
+    }
 }
     
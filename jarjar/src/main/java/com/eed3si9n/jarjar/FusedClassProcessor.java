@@ -0,0 +1,129 @@
+package com.eed3si9n.jarjar;
+
+import com.eed3si9n.jarjar.util.*;
+import java.io.IOException;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import static com.eed3si9n.jarjar.misplaced.MisplacedClassProcessor.VERSIONED_CLASS_FOLDER;
+
+/**
+ * Runs the class rewrites of a processor chain as one visitor chain, so each class is parsed and
+ * written once instead of once per processor.
+ *
+ * <p>The result is the same as running <code>chain</code>, which the rewrites must be the class
+ * part of: the keep processor, the zap processor, the misplaced class check and then the
+ * <code>transforms</code> in order. Entries that are not plain classes in their proper place, classes
+ * dropped by keep or zap, and classes that fail to parse or transform are handed to
+ * <code>chain</code> itself, so they are treated and reported exactly as before.
+ *
+ * <p>With <code>constantPoolOnly</code>, which is only right when the transforms just rename
+ * classes as {@link RemappingClassTransformer} and {@link MethodSignatureProcessor} do, a class is
+ * rewritten by {@link ConstantPoolRemapper} instead, and goes through the visitor chain only if
+ * that cannot handle it or keep still has to see its dependencies.
+ */
+class FusedClassProcessor implements JarProcessor
+{
+    private final JarProcessor chain;
+    private final KeepProcessor kp;
+    private final JarProcessor zap;
+    private final TracingRemapper remapper;
+    private final ClassTransform[] transforms;
+    private final boolean tracksChanges;
+    private final boolean constantPoolOnly;
+
+    public FusedClassProcessor(JarProcessor chain, KeepProcessor kp, JarProcessor zap,
+                               TracingRemapper remapper, ClassTransform[] transforms) {
+        this(chain, kp, zap, remapper, transforms, false);
+    }
+
+    public FusedClassProcessor(JarProcessor chain, KeepProcessor kp, JarProcessor zap,
+                               TracingRemapper remapper, ClassTransform[] transforms,
+                               boolean constantPoolOnly) {
+        this.chain = chain;
+        this.kp = kp;
+        this.zap = zap;
+        this.remapper = remapper;
+        this.transforms = transforms.clone();
+        boolean tracks = true;
+        for (ClassTransform transform : transforms)
+            tracks &= transform.tracksChanges();
+        this.tracksChanges = tracks;
+        this.constantPoolOnly = constantPoolOnly && tracks;
+    }
+
+    public boolean process(EntryStruct struct) throws IOException {
+        if (!struct.name.endsWith(".class") || struct.skipTransform)
+            return chain.process(struct);
+
+        ClassReader reader;
+        try {
+            reader = new ClassReader(struct.data);
+        } catch (RuntimeException e) {
+            return chain.process(struct);
+        }
+        String name = struct.name.substring(0, struct.name.length() - 6);
+        String prefix = versionedPrefix(struct.name);
+        if (!reader.getClassName().equals(name.substring(prefix.length())))
+            return chain.process(struct);
+        if ((kp != null && !kp.keeps(name)) || !zap.process(struct))
+            return chain.process(struct);
+        // no rule can touch the class, and nothing else needs to see it
+        if (tracksChanges && (kp == null || !kp.collectsDependencies()) && !remapper.mayChange(reader))
+            return true;
+
+        TracingRemapper structRemapper;
+        if (constantPoolOnly && (kp == null || !kp.collectsDependencies())) {
+            structRemapper = remapper.copy();
+            byte[] data;
+            try {
+                data = ConstantPoolRemapper.remap(struct.data, reader, structRemapper);
+            } catch (RuntimeException e) {
+                data = null;
+            }
+            if (data != null) {
+                if (kp != null)
+                    kp.addRoot(name);
+                if (structRemapper.hasChanges()) {
+                    struct.data = data;
+                    struct.name = prefix + structRemapper.mapType(reader.getClassName()) + ".class";
+                }
+                return true;
+            }
+        }
+
+        structRemapper = remapper.copy();
+        // renaming changes neither stack sizes nor frames, so both are copied as they are
+        GetNameClassWriter w = new GetNameClassWriter(0);
+        ClassVisitor cv = w;
+        for (int i = transforms.length - 1; i >= 0; i--)
+            cv = transforms[i].transform(cv, structRemapper);
+        if (kp != null)
+            cv = kp.collectDependencies(name, cv);
+        byte[] data;
+        try {
+            reader.accept(cv, 0);
+            data = w.toByteArray();
+        } catch (RuntimeException e) {
+            return chain.process(struct);
+        }
+
+        if (kp != null)
+            kp.addRoot(name);
+        if (!tracksChanges || structRemapper.hasChanges()) {
+            struct.data = data;
+            struct.name = prefix + w.getClassName().replace('.', '/') + ".class";
+        }
+        return true;
+    }
+
+    public NameDecision processName(String name) {
+        return chain.processName(name);
+    }
+
+    private static String versionedPrefix(String name) {
+        return name.startsWith(VERSIONED_CLASS_FOLDER) ?
+            name.substring(0, name.indexOf("/", VERSIONED_CLASS_FOLDER.length()) + 1) :
+            "";
+    }
+}
@@ -19,86 +19,180 @@ package com.eed3si9n.jarjar;
 import com.eed3si9n.jarjar.util.*;
 import java.io.*;
 import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import org.objectweb.asm.*;
 import org.objectweb.asm.commons.*;
 
 // TODO: this can probably be refactored into JarClassVisitor, etc.
-class KeepProcessor extends Remapper implements JarProcessor
+class KeepProcessor implements JarProcessor
 {
-    private final ClassVisitor cv = new ClassRemapper(new EmptyClassVisitor(), this);
-    private final List<Wildcard> wildcards;
-    private final List<String> roots = new ArrayList<String>();
-    private final Map<String, Set<String>> depend = new HashMap<String, Set<String>>();
+    private final WildcardMatcher wildcards;
+    private final DependencyGraph graph = new DependencyGraph();
+    // set by analyze; from then on the classes to keep are known up front
+    private BitSet reachable;
 
     public KeepProcessor(List<Keep> patterns) {
-        wildcards = PatternElement.createWildcards(patterns);
+        this(new WildcardMatcher(PatternElement.createWildcards(patterns)));
+    }
+
+    KeepProcessor(WildcardMatcher wildcards) {
+        this.wildcards = wildcards;
     }
 
     public boolean isEnabled() {
         return !wildcards.isEmpty();
     }
 
-    public Set<String> getExcludes() {
-        Set<String> closure = new HashSet<String>();
-        recursiveProcessDependencies(closure, roots);
-
-        Set<String> removable = new HashSet<String>(depend.keySet());
-        removable.removeAll(closure);
-        return removable;
+    /**
+     * Reads every class in <code>jar</code> ahead of processing to record its dependencies, and
+     * works out which classes the roots reach. A run over the same jar afterwards keeps exactly
+     * those classes, dropping the others by name, so there is nothing left for a second pass over
+     * the output to strip.
+     */
+    public void analyze(File jar) throws IOException {
+        JarFile in = new JarFile(jar);
+        try {
+            byte[] buf = new byte[0x2000];
+            Enumeration<JarEntry> e = in.entries();
+            while (e.hasMoreElements()) {
+                JarEntry entry = e.nextElement();
+                if (!entry.getName().endsWith(".class"))
+                    continue;
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                IoUtil.pipe(in.getInputStream(entry), baos, buf);
+                record(entry.getName(), baos.toByteArray(), 0);
+            }
+        } finally {
+            in.close();
+        }
+        reachable = graph.reachable();
     }
 
-    private void recursiveProcessDependencies(Set<String> result, Collection<String> roots) {
-        if (roots == null)
-            return;
-        for (String name : roots) {
-            if (result.add(name))
-                recursiveProcessDependencies(result, depend.get(name));
+    /**
+     * Same as {@link #analyze(File)}, for the entries of an input that is not a jar, such as a
+     * directory of class files.
+     */
+    public void analyze(Iterator<EntryStruct> entries) {
+        while (entries.hasNext()) {
+            EntryStruct entry = entries.next();
+            if (entry.name.endsWith(".class"))
+                record(entry.name, entry.data, 0);
         }
+        reachable = graph.reachable();
     }
 
-    private Set<String> currentDependenciesSet;
+    public Set<String> getExcludes() {
+        if (reachable != null)
+            return Collections.emptySet();
+        return graph.unreachable(graph.reachable());
+    }
 
     public boolean process(EntryStruct struct) throws IOException {
         if (struct.name.endsWith(".class")) {
             String name = struct.name.substring(0, struct.name.length() - 6);
-            depend.put(name, currentDependenciesSet = new HashSet<String>());
-            try {
-                new ClassReader(new ByteArrayInputStream(struct.data)).accept(cv,
-                        ClassReader.EXPAND_FRAMES);
-                currentDependenciesSet.remove(name);
-            } catch (Exception e) {
-                System.err.println("Error reading " + struct.name + ": " + e.getMessage());
-            }
-
-            for (Wildcard wildcard : wildcards) {
-                if (wildcard.matches(name)) {
-                    roots.add(name);
-                    return true;
-                }
-            }
-            return false;
+            if (reachable != null)
+                return graph.contains(reachable, name);
+            return record(struct.name, struct.data, 0);
         }
         return true;
     }
 
-    public String map(String key) {
-        if (key.startsWith("java/") || key.startsWith("javax/"))
-            return null;
-        currentDependenciesSet.add(key);
-        return null;
+    private boolean record(String entryName, byte[] data, int flags) {
+        String name = entryName.substring(0, entryName.length() - 6);
+        DependencyCollector collector = new DependencyCollector();
+        try {
+            new ClassReader(new ByteArrayInputStream(data)).accept(
+                    new ClassRemapper(new EmptyClassVisitor(), collector), flags);
+            collector.dependencies.remove(name);
+        } catch (Exception e) {
+            System.err.println("Error reading " + entryName + ": " + e.getMessage());
+        }
+        graph.setDependencies(name, collector.dependencies);
+
+        if (isRoot(name)) {
+            addRoot(name);
+            return true;
+        }
+        return false;
     }
 
-    public Object mapValue(Object value) {
-        if (value instanceof String) {
-            String s = (String)value;
-            if (PackageRemapper.isArrayForName(s)) {
-                mapDesc(s.replace('.', '/'));
-            } else if (isForName(s)) {
-                map(s.replace('.', '/'));
+    public NameDecision processName(String name) {
+        if (!name.endsWith(".class"))
+            return NameDecision.PASS;
+        if (reachable == null)
+            return NameDecision.PROCESS;
+        return keeps(name.substring(0, name.length() - 6)) ? NameDecision.PASS : NameDecision.DROP;
+    }
+
+    /**
+     * Whether the class <code>name</code> is kept: one of the roots, or after {@link #analyze},
+     * any class they reach.
+     */
+    boolean keeps(String name) {
+        return (reachable != null) ? graph.contains(reachable, name) : isRoot(name);
+    }
+
+    private boolean isRoot(String name) {
+        return wildcards.matches(name);
+    }
+
+    void addRoot(String name) {
+        if (reachable == null)
+            graph.addRoot(name);
+    }
+
+    /**
+     * Whether {@link #collectDependencies} still records anything, which it stops doing once
+     * {@link #analyze} has done it for the whole jar.
+     */
+    boolean collectsDependencies() {
+        return reachable == null;
+    }
+
+    /**
+     * Returns a visitor that records the classes the class <code>name</code> refers to while
+     * passing it on to <code>next</code> unchanged.
+     */
+    ClassVisitor collectDependencies(final String name, ClassVisitor next) {
+        if (reachable != null)
+            return next;
+        final DependencyCollector collector = new DependencyCollector();
+        return new ClassRemapper(Opcodes.ASM9, next, collector) {
+            @Override
+            public void visitEnd() {
+                super.visitEnd();
+                collector.dependencies.remove(name);
+                graph.setDependencies(name, collector.dependencies);
+            }
+        };
+    }
+
+    // Records the classes referenced by one class file; a fresh one is used per entry so that
+    // entries can be processed concurrently.
+    private static class DependencyCollector extends Remapper
+    {
+        final Set<String> dependencies = new HashSet<String>();
+
+        public String map(String key) {
+            if (key.startsWith("java/") || key.startsWith("javax/"))
+                return null;
+            dependencies.add(key);
+            return null;
+        }
+
+        public Object mapValue(Object value) {
+            if (value instanceof String) {
+                String s = (String)value;
+                if (PackageRemapper.isArrayForName(s)) {
+                    mapDesc(s.replace('.', '/'));
+                } else if (isForName(s)) {
+                    map(s.replace('.', '/'));
+                }
+                return value;
+            } else {
+                return super.mapValue(value);
             }
-            return value;
-        } else {
-            return super.mapValue(value);
         }
     }
 
@@ -83,16 +83,41 @@ public class Main {
     w.flush();
   }
 
+  public void compile(File rulesFile, File outFile) throws IOException {
+    if (rulesFile == null || outFile == null) {
+      throw new IllegalArgumentException("rulesFile and outFile are required");
+    }
+    OutputStream out = new FileOutputStream(outFile);
+    try {
+      RuleSet.load(rulesFile).writeTo(out);
+    } finally {
+      out.close();
+    }
+  }
+
   public void process(File rulesFile, File inJar, File outJar) throws IOException {
     if (rulesFile == null || inJar == null || outJar == null) {
       throw new IllegalArgumentException("rulesFile, inJar, and outJar are required");
     }
-    List<PatternElement> rules = RulesFileParser.parse(rulesFile);
+    RuleSet rules = RuleSet.load(rulesFile).relevantTo(StandaloneJarProcessor.entryNames(inJar));
     boolean verbose = Boolean.getBoolean("verbose");
     boolean skipManifest = Boolean.getBoolean("skipManifest");
+    int threads = Integer.getInteger("threads", 1);
+    boolean constantPoolOnly = Boolean.getBoolean("constantPoolOnly");
+    String resources = System.getProperty("resources", "");
+    List<String> resourceGlobs = resources.isEmpty() ?
+        Collections.<String>emptyList() : Arrays.asList(resources.split(","));
     MainProcessor proc = new MainProcessor(rules, verbose, skipManifest,
-        System.getProperty("misplacedClassStrategy"));
-    StandaloneJarProcessor.run(inJar, outJar, proc);
-    proc.strip(outJar);
+        System.getProperty("misplacedClassStrategy"), constantPoolOnly, resourceGlobs);
+    proc.analyze(inJar);
+    String cacheDir = System.getProperty("cache");
+    if (cacheDir == null) {
+      StandaloneJarProcessor.run(inJar, outJar, proc, threads);
+    } else {
+      EntryCache cache = new EntryCache(new File(cacheDir).toPath(),
+          Long.getLong("cacheSize", 512L * 1024 * 1024));
+      StandaloneJarProcessor.run(inJar, outJar, proc.cachedBy(cache), threads);
+      cache.trim();
+    }
   }
 }
@@ -21,13 +21,15 @@ import com.eed3si9n.jarjar.util.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 class MainProcessor implements JarProcessor
 {
     private final boolean verbose;
-    private final JarProcessorChain chain;
+    private final JarProcessor chain;
     private final KeepProcessor kp;
-    private final Map<String, String> renames = new HashMap<String, String>();
+    private final String fingerprint;
+    private final Map<String, String> renames = new ConcurrentHashMap<String, String>();
 
     public MainProcessor(List<PatternElement> patterns, boolean verbose, boolean skipManifest) {
         this(patterns, verbose, skipManifest, null);
@@ -45,22 +47,46 @@ class MainProcessor implements JarProcessor
      */
     public MainProcessor(List<PatternElement> patterns, boolean verbose, boolean skipManifest,
                          String misplacedClassStrategy) {
+        this(patterns, verbose, skipManifest, misplacedClassStrategy, false,
+            Collections.<String>emptyList());
+    }
+
+    /**
+     * Creates a new MainProcessor, which automatically generates the standard zap, keep, remap,
+     * etc processors.
+     *
+     * @param patterns List of rules to parse.
+     * @param verbose Whether to verbosely log information.
+     * @param skipManifest If true, omits the manifest file from the processed jar.
+     * @param misplacedClassStrategy The strategy to use when processing class files that are in the
+     * wrong package (see MisplacedClassProcessorFactory.STRATEGY_* constants).
+     * @param constantPoolOnly If true, renames classes by rewriting only their constant pool where
+     * possible, rather than reading and writing them again with ASM.
+     * @param resourceGlobs The resources whose text has class names renamed in it as well, as
+     * globs over the entry name (see ResourceProcessor), besides those of the rule set.
+     */
+    public MainProcessor(List<PatternElement> patterns, boolean verbose, boolean skipManifest,
+                         String misplacedClassStrategy, boolean constantPoolOnly,
+                         List<String> resourceGlobs) {
+        this(new RuleSet(patterns), verbose, skipManifest, misplacedClassStrategy,
+            constantPoolOnly, resourceGlobs);
+    }
+
+    /**
+     * Creates a new MainProcessor for a compiled rule set, which can be shared with other
+     * processors.
+     *
+     * @see #MainProcessor(List, boolean, boolean, String, boolean, List)
+     */
+    public MainProcessor(RuleSet rules, boolean verbose, boolean skipManifest,
+                         String misplacedClassStrategy, boolean constantPoolOnly,
+                         List<String> resourceGlobs) {
         this.verbose = verbose;
-        List<Zap> zapList = new ArrayList<Zap>();
-        List<Rule> ruleList = new ArrayList<Rule>();
-        List<Keep> keepList = new ArrayList<Keep>();
-        for (PatternElement pattern : patterns) {
-            if (pattern instanceof Zap) {
-                zapList.add((Zap) pattern);
-            } else if (pattern instanceof Rule) {
-                ruleList.add((Rule) pattern);
-            } else if (pattern instanceof Keep) {
-                keepList.add((Keep) pattern);
-            }
-        }
+        this.fingerprint = EntryCache.fingerprint(rules.getFingerprint(), skipManifest,
+            misplacedClassStrategy, constantPoolOnly, resourceGlobs);
 
-        PackageRemapper pr = new PackageRemapper(ruleList, verbose);
-        kp = keepList.isEmpty() ? null : new KeepProcessor(keepList);
+        PackageRemapper pr = new PackageRemapper(rules, verbose);
+        kp = rules.getKeeps().isEmpty() ? null : new KeepProcessor(rules.getKeepMatcher());
 
         List<JarProcessor> processors = new ArrayList<JarProcessor>();
         if (skipManifest)
@@ -71,16 +97,48 @@ class MainProcessor implements JarProcessor
         JarProcessor misplacedClassProcessor = MisplacedClassProcessorFactory.getInstance()
             .getProcessorForName(misplacedClassStrategy);
 
-        processors.add(new ZapProcessor(zapList));
-        processors.add(misplacedClassProcessor);
-        processors.add(new JarTransformerChain(new RemappingClassTransformer[] {
+        ZapProcessor zap = new ZapProcessor(rules.getZapMatcher());
+        JarTransformerChain transformer = new JarTransformerChain(new RemappingClassTransformer[] {
             new RemappingClassTransformer()
-        }, pr));
-        processors.add(new MethodSignatureProcessor(pr));
-        processors.add(new ResourceProcessor(pr));
-        chain = new JarProcessorChain(processors.toArray(new JarProcessor[processors.size()]));
+        }, pr);
+        MethodSignatureProcessor methodSignatureProcessor = new MethodSignatureProcessor(pr);
+        processors.add(zap);
+        processors.add(misplacedClassProcessor);
+        processors.add(transformer);
+        processors.add(methodSignatureProcessor);
+        List<String> globs = new ArrayList<String>(rules.getResourceGlobs());
+        globs.addAll(resourceGlobs);
+        processors.add(new ResourceProcessor(pr, globs));
+        chain = new FusedClassProcessor(
+            new JarProcessorChain(processors.toArray(new JarProcessor[processors.size()])),
+            kp, zap, pr, new ClassTransform[] { transformer, methodSignatureProcessor },
+            constantPoolOnly);
+    }
+
+    /**
+     * Returns this processor looking entries up in <code>cache</code> first, or this processor
+     * itself if it has keep rules, which decide on an entry from the rest of the jar.
+     */
+    public JarProcessor cachedBy(EntryCache cache) {
+        if (kp != null)
+            return this;
+        return new CachingJarProcessor(this, cache, fingerprint);
     }
 
+    /**
+     * With keep rules, works out from <code>file</code> which classes the roots reach before the
+     * jar is processed, so that processing writes only those. Without keep rules this does nothing.
+     */
+    public void analyze(File file) throws IOException {
+        if (kp != null)
+            kp.analyze(file);
+    }
+
+    /**
+     * With keep rules, removes from <code>file</code> the classes the roots do not reach, once the
+     * entries have been processed without {@link #analyze}, as the Ant task does for entries that
+     * come from file sets rather than one jar. After {@link #analyze} there is nothing to remove.
+     */
     public void strip(File file) throws IOException {
         if (kp == null)
             return;
@@ -127,4 +185,11 @@ class MainProcessor implements JarProcessor
         }
         return keepIt;
     }
+
+    public NameDecision processName(String name) {
+        NameDecision decision = chain.processName(name);
+        if (decision == NameDecision.DROP && verbose)
+            System.err.println("Removed " + name);
+        return decision;
+    }
 }
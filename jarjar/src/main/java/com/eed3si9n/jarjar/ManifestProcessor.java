@@ -34,5 +34,9 @@ class ManifestProcessor implements JarProcessor
     public boolean process(EntryStruct struct) throws IOException {
         return !struct.name.equalsIgnoreCase(MANIFEST_PATH);
     }
+
+    public NameDecision processName(String name) {
+        return name.equalsIgnoreCase(MANIFEST_PATH) ? NameDecision.DROP : NameDecision.PASS;
+    }
 }
     
@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.eed3si9n.jarjar.util.ClassTransform;
 import com.eed3si9n.jarjar.util.RemappingJarProcessor;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -22,7 +23,7 @@ import com.eed3si9n.jarjar.util.JarProcessor;
  * being renamed. Method signatures are more difficult to detect so this class keeps track of which
  * methods definitely take method signatures and remaps those explicitly.
  */
-public class MethodSignatureProcessor extends RemappingJarProcessor {
+public class MethodSignatureProcessor extends RemappingJarProcessor implements ClassTransform {
 
   /**
    * List of method names which take a method signature as their parameter.
@@ -41,7 +42,7 @@ public class MethodSignatureProcessor extends RemappingJarProcessor {
     if (!struct.name.endsWith(".class") || struct.skipTransform) {
       return true;
     }
-    ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    ClassWriter classWriter = new ClassWriter(0);
     ClassReader reader;
     try {
       reader = new ClassReader(struct.data);
@@ -50,11 +51,26 @@ public class MethodSignatureProcessor extends RemappingJarProcessor {
       e.printStackTrace();
       return true;
     }
-    reader.accept(new MethodSignatureRemapperClassVisitor(classWriter, remapper), ClassReader.EXPAND_FRAMES);
+    reader.accept(transform(classWriter, remapper), 0);
     struct.data = classWriter.toByteArray();
     return true;
   }
 
+  @Override
+  public ClassVisitor transform(ClassVisitor parent, Remapper remapper) {
+    return new MethodSignatureRemapperClassVisitor(parent, remapper);
+  }
+
+  @Override
+  public boolean tracksChanges() {
+    return true;
+  }
+
+  /** Whether the string passed to a method called <code>name</code> is rewritten. */
+  static boolean rewritesArgumentOf(String name) {
+    return METHOD_NAMES_WITH_PARAMS_TO_REWRITE.contains(name);
+  }
+
   private static class MethodSignatureRemapperClassVisitor extends ClassVisitor {
 
     private final Remapper remapper;
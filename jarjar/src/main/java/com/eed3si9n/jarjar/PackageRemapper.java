@@ -19,6 +19,7 @@ package com.eed3si9n.jarjar;
 import org.objectweb.asm.*;
 import org.objectweb.asm.commons.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 class PackageRemapper extends TracingRemapper
@@ -28,24 +29,72 @@ class PackageRemapper extends TracingRemapper
     private static final Pattern ARRAY_FOR_NAME_PATTERN
         = Pattern.compile("\\[L[\\p{javaJavaIdentifierPart}\\.]+?;");
 
-    private final List<Wildcard> wildcards;
+    private final WildcardMatcher wildcards;
+    // the package part of every rule's literal prefix, slashed and dotted
+    private final List<String> packageList;
+    private final SubstringMatcher packages;
     private final List<Rule> ruleList;
-    private final Map<String, String> typeCache = new HashMap<String, String>();
-    private final Map<String, String> pathCache = new HashMap<String, String>();
-    private final Map<Object, String> valueCache = new HashMap<Object, String>();
+    // shared by every copy, and by concurrent callers when the jar is processed on several threads
+    private final Map<String, String> typeCache;
+    private final Map<String, Mapping> pathCache;
+    private final Map<Object, Mapping> valueCache;
     private final boolean verbose;
     private boolean modified = false;
 
 
     public PackageRemapper(List<Rule> ruleList, boolean verbose) {
+        this(new RuleSet(ruleList), verbose);
+    }
+
+    /**
+     * Creates a remapper for the rules of <code>rules</code>, sharing their compiled wildcards.
+     */
+    public PackageRemapper(RuleSet rules, boolean verbose) {
         this.verbose = verbose;
-        this.ruleList = ruleList;
-        wildcards = PatternElement.createWildcards(ruleList);
+        this.ruleList = rules.getRules();
+        List<Wildcard> list = rules.getRuleWildcards();
+        wildcards = rules.getRuleMatcher();
+        List<String> literals = new ArrayList<String>();
+        for (Wildcard wildcard : list) {
+            String prefix = wildcard.getPrefix();
+            // paths are matched with their file name replaced by RESOURCE_SUFFIX
+            prefix = prefix.substring(0, prefix.lastIndexOf('/') + 1);
+            literals.add(prefix);
+            literals.add(prefix.replace('/', '.'));
+        }
+        packageList = Collections.unmodifiableList(literals);
+        packages = new SubstringMatcher(literals);
+        typeCache = new ConcurrentHashMap<String, String>();
+        pathCache = new ConcurrentHashMap<String, Mapping>();
+        valueCache = new ConcurrentHashMap<Object, Mapping>();
+    }
+
+    private PackageRemapper(PackageRemapper other) {
+        this.verbose = other.verbose;
+        this.ruleList = other.ruleList;
+        this.wildcards = other.wildcards;
+        this.packageList = other.packageList;
+        this.packages = other.packages;
+        this.typeCache = other.typeCache;
+        this.pathCache = other.pathCache;
+        this.valueCache = other.valueCache;
     }
 
+    /**
+     * Returns a remapper with its own change tracking that shares the compiled rules and the
+     * caches of this one, so a name looked up for one entry is not worked out again for the next.
+     */
     @Override
     public TracingRemapper copy() {
-        return new PackageRemapper(this.ruleList, this.verbose);
+        return new PackageRemapper(this);
+    }
+
+    /**
+     * Returns the package part of every rule's literal prefix, slashed and dotted: a string that
+     * contains none of them is never changed by {@link #mapValue}.
+     */
+    List<String> getPackages() {
+        return packageList;
     }
 
     // also used by KeepProcessor
@@ -57,66 +106,62 @@ class PackageRemapper extends TracingRemapper
         String s = typeCache.get(key);
         if (s == null) {
             s = replaceHelper(key);
-            if (key.equals(s))
-                s = null;
             typeCache.put(key, s);
         }
+        if (key.equals(s))
+            return null;
+        modified = true;
         return s;
     }
 
     public String mapPath(String path) {
-        String s = pathCache.get(path);
-        if (s == null) {
-            s = path;
-            int slash = s.lastIndexOf('/');
-            String end;
-            if (slash < 0) {
-                end = s;
-                s = RESOURCE_SUFFIX;
-            } else {
-                end = s.substring(slash + 1);
-                s = s.substring(0, slash + 1) + RESOURCE_SUFFIX;
-            }
-            boolean absolute = s.startsWith("/");
-            if (absolute) s = s.substring(1);
-            
-            s = replaceHelper(s);
-            
-            if (absolute) s = "/" + s;
-            if (s.indexOf(RESOURCE_SUFFIX) < 0)
-              return path;
-            s = s.substring(0, s.length() - RESOURCE_SUFFIX.length()) + end;
-            pathCache.put(path, s);
+        Mapping m = pathCache.get(path);
+        if (m == null) {
+            m = computePath(path);
+            pathCache.put(path, m);
         }
-        return s;
+        modified |= m.changed;
+        return m.value;
+    }
+
+    private Mapping computePath(String path) {
+        String s = path;
+        int slash = s.lastIndexOf('/');
+        String end;
+        if (slash < 0) {
+            end = s;
+            s = RESOURCE_SUFFIX;
+        } else {
+            end = s.substring(slash + 1);
+            s = s.substring(0, slash + 1) + RESOURCE_SUFFIX;
+        }
+        boolean absolute = s.startsWith("/");
+        if (absolute) s = s.substring(1);
+
+        String r = replaceHelper(s);
+        boolean changed = !r.equals(s);
+        s = r;
+
+        if (absolute) s = "/" + s;
+        if (s.indexOf(RESOURCE_SUFFIX) < 0)
+            return new Mapping(path, changed);
+        s = s.substring(0, s.length() - RESOURCE_SUFFIX.length()) + end;
+        return new Mapping(s, changed);
     }
 
     public Object mapValue(Object value) {
         if (value instanceof String) {
-            String s = valueCache.get(value);
-            if (s == null) {
-                s = (String)value;
-                if (isArrayForName(s)) {
-                    String desc1 = s.replace('.', '/');
-                    String desc2 = mapDesc(desc1);
-                    if (!desc2.equals(desc1))
-                        return desc2.replace('/', '.');
-                } else {
-                    s = mapPath(s);
-                    if (s.equals(value)) {
-                        boolean hasDot = s.indexOf('.') >= 0;
-                        boolean hasSlash = s.indexOf('/') >= 0;
-                        if (!(hasDot && hasSlash)) {
-                            if (hasDot) {
-                                s = replaceHelper(s.replace('.', '/')).replace('/', '.');
-                            } else {
-                                s = replaceHelper(s);
-                            }
-                        }
-                    }
-                }
-                valueCache.put(value, s);
+            // most strings are messages that no rule can match: those are neither worked on nor
+            // cached (see computeValue)
+            if (!packages.find((String) value))
+                return value;
+            Mapping m = valueCache.get(value);
+            if (m == null) {
+                m = computeValue((String)value);
+                valueCache.put(value, m);
             }
+            modified |= m.changed;
+            String s = m.value;
             // TODO: add back class name to verbose message
             if (verbose && !s.equals(value))
                 System.err.println("Changed \"" + value + "\" -> \"" + s + "\"");
@@ -126,6 +171,38 @@ class PackageRemapper extends TracingRemapper
         }
     }
 
+    /**
+     * Whether mapping <code>value</code> finds a rule or not, the rule's prefix had to match the
+     * start of <code>value</code> or of its directory, possibly after dots were turned into
+     * slashes, so <code>value</code> contains the package part of that prefix, slashed or dotted.
+     */
+    private Mapping computeValue(String value) {
+        if (isArrayForName(value)) {
+            String desc1 = value.replace('.', '/');
+            String desc2 = mapDesc(desc1);
+            if (!desc2.equals(desc1))
+                return new Mapping(desc2.replace('/', '.'), true);
+            return new Mapping(value, false);
+        }
+        Mapping path = pathCache.get(value);
+        if (path == null) {
+            path = computePath(value);
+            pathCache.put(value, path);
+        }
+        String s = path.value;
+        if (s.equals(value)) {
+            boolean hasDot = s.indexOf('.') >= 0;
+            boolean hasSlash = s.indexOf('/') >= 0;
+            if (!(hasDot && hasSlash)) {
+                String r = hasDot ? s.replace('.', '/') : s;
+                String test = replaceHelper(r);
+                if (!test.equals(r))
+                    return new Mapping(hasDot ? test.replace('/', '.') : test, true);
+            }
+        }
+        return new Mapping(s, path.changed);
+    }
+
     @Override
     public String mapInnerClassName(
             final String name, final String ownerName, final String innerName) {
@@ -137,19 +214,58 @@ class PackageRemapper extends TracingRemapper
     }
 
     private String replaceHelper(String value) {
-        for (Wildcard wildcard : wildcards) {
-            String test = wildcard.replace(value);
-            if (test != null) {
-                if (!test.equals(value))
-                    this.modified = true;
-                return test;
-            }
-        }
-        return value;
+        String test = wildcards.replace(value);
+        return (test != null) ? test : value;
     }
 
     @Override
     public boolean hasChanges() {
         return modified;
     }
+
+    /**
+     * Everything that gets mapped comes from the Utf8 entries of the constant pool, with dots at
+     * most turned into slashes, so a rule can only match if one of those entries contains the
+     * package part of its prefix.
+     */
+    @Override
+    public boolean mayChange(ClassReader reader) {
+        if (packages.isMatch(0))
+            return true;
+        for (int i = 1, n = reader.getItemCount(); i < n; i++) {
+            int offset = reader.getItem(i);
+            // the second slot of a long or double has no offset
+            if (offset == 0 || reader.readByte(offset - 1) != 1)
+                continue;
+            int state = 0;
+            for (int p = offset + 2, end = p + reader.readUnsignedShort(offset); p < end; ) {
+                // modified UTF-8
+                int c = reader.readByte(p++);
+                if (c >= 0x80) {
+                    if (c < 0xE0) {
+                        c = ((c & 0x1F) << 6) | (reader.readByte(p++) & 0x3F);
+                    } else {
+                        c = ((c & 0x0F) << 12) | ((reader.readByte(p++) & 0x3F) << 6);
+                        c |= reader.readByte(p++) & 0x3F;
+                    }
+                }
+                state = packages.next(state, (char) c);
+                if (packages.isMatch(state))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Mapping
+    {
+        final String value;
+        // whether a rule rewrote the name, even where the result reads the same
+        final boolean changed;
+
+        Mapping(String value, boolean changed) {
+            this.value = value;
+            this.changed = changed;
+        }
+    }
 }
@@ -30,6 +30,13 @@ abstract public class PatternElement
         return pattern;
     }
 
+    /**
+     * Returns the pattern as a line of a rules file.
+     */
+    public String toString() {
+        return getClass().getSimpleName().toLowerCase() + " " + pattern;
+    }
+
     static List<Wildcard> createWildcards(List<? extends PatternElement> patterns) {
         List<Wildcard> wildcards = new ArrayList<Wildcard>();
         for (PatternElement pattern : patterns) {
@@ -41,4 +48,48 @@ abstract public class PatternElement
         }
         return wildcards;
     }
+
+    /**
+     * Returns <code>patterns</code> without the zap and keep patterns that match none of the
+     * entries of a jar, given by <code>entryNames</code>, which can be read from its central
+     * directory alone. Rules are all kept, as they also rename the classes a jar refers to, and so
+     * are all keep patterns if none matches, since keep rules without roots still drop every class.
+     */
+    public static List<PatternElement> relevantPatterns(List<? extends PatternElement> patterns,
+                                                        Collection<String> entryNames) {
+        List<Zap> zapList = new ArrayList<Zap>();
+        List<Keep> keepList = new ArrayList<Keep>();
+        for (PatternElement pattern : patterns) {
+            if (pattern instanceof Zap)
+                zapList.add((Zap) pattern);
+            else if (pattern instanceof Keep)
+                keepList.add((Keep) pattern);
+        }
+        WildcardMatcher zaps = new WildcardMatcher(createWildcards(zapList));
+        WildcardMatcher keeps = new WildcardMatcher(createWildcards(keepList));
+        BitSet zapped = new BitSet();
+        BitSet kept = new BitSet();
+        for (String name : entryNames) {
+            zaps.collectMatches(ZapProcessor.matchName(name), zapped);
+            if (name.endsWith(".class"))
+                keeps.collectMatches(name.substring(0, name.length() - 6), kept);
+        }
+
+        List<PatternElement> result = new ArrayList<PatternElement>();
+        int zap = 0;
+        int keep = 0;
+        for (PatternElement pattern : patterns) {
+            if (pattern instanceof Zap) {
+                if (zapped.get(zap++))
+                    result.add(pattern);
+            } else if (pattern instanceof Keep) {
+                if (kept.isEmpty() || kept.get(keep))
+                    result.add(pattern);
+                keep++;
+            } else {
+                result.add(pattern);
+            }
+        }
+        return result;
+    }
 }
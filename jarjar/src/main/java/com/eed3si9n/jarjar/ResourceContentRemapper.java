@@ -0,0 +1,120 @@
+package com.eed3si9n.jarjar;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renames the classes and paths named in the text of a resource, such as
+ * <code>META-INF/spring.factories</code>, <code>reflect-config.json</code>, a properties file or
+ * an XML file, working on the bytes without decoding the resource as a whole.
+ *
+ * <p>The bytes are run once through an automaton of the rules' package prefixes, encoded as
+ * UTF-8. Only where one of them is found is the name around it, the run of identifier characters,
+ * dots and slashes it is part of, decoded and mapped with {@link PackageRemapper#mapValue}; every
+ * other span is copied as it is. Non-ASCII bytes are part of a name only where they are the UTF-8
+ * encoding of an identifier character, so in ISO-8859-1, as properties files are, a letter such
+ * as <code>\u00e9</code> next to a name ends the name rather than being decoded with it.
+ */
+class ResourceContentRemapper
+{
+    private final PackageRemapper pr;
+    private final SubstringMatcher packages;
+
+    public ResourceContentRemapper(PackageRemapper pr) {
+        this.pr = pr;
+        List<String> literals = new ArrayList<String>();
+        // one char per byte, so that the automaton can be fed bytes
+        for (String literal : pr.getPackages())
+            literals.add(new String(literal.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1));
+        packages = new SubstringMatcher(literals);
+    }
+
+    /**
+     * Returns <code>data</code> with the names in it mapped, or <code>data</code> itself if none
+     * changed.
+     */
+    public byte[] remap(byte[] data) {
+        ByteArrayOutputStream out = null;
+        boolean[] nonAsciiParts = nonAsciiNameParts(data);
+        int copied = 0;
+        int state = 0;
+        for (int i = 0; i < data.length; i++) {
+            byte c = data[i];
+            if (!isNamePart(data, nonAsciiParts, i)) {
+                state = 0;
+                continue;
+            }
+            state = packages.next(state, (char) (c & 0xFF));
+            if (!packages.isMatch(state))
+                continue;
+
+            int start = i;
+            while (start > copied && isNamePart(data, nonAsciiParts, start - 1))
+                start--;
+            int end = i + 1;
+            while (end < data.length && isNamePart(data, nonAsciiParts, end))
+                end++;
+            String name = new String(data, start, end - start, StandardCharsets.UTF_8);
+            String mapped = (String) pr.mapValue(name);
+            if (!mapped.equals(name)) {
+                if (out == null)
+                    out = new ByteArrayOutputStream(data.length + 64);
+                out.write(data, copied, start - copied);
+                byte[] bytes = mapped.getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                copied = end;
+            }
+            // the name is done with, whatever else it contains
+            i = end - 1;
+            state = 0;
+        }
+        if (out == null)
+            return data;
+        out.write(data, copied, data.length - copied);
+        return out.toByteArray();
+    }
+
+    // ASCII identifier characters, dots, slashes, and the bytes of UTF-8 identifier characters
+    private static boolean isNamePart(byte[] data, boolean[] nonAsciiParts, int i) {
+        byte c = data[i];
+        if (c < 0)
+            return nonAsciiParts[i];
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+            || c == '_' || c == '$' || c == '.' || c == '/';
+    }
+
+    /**
+     * Returns which bytes of <code>data</code> belong to a well-formed UTF-8 sequence of an
+     * identifier character, or <code>null</code> if it is all ASCII.
+     */
+    private static boolean[] nonAsciiNameParts(byte[] data) {
+        boolean[] parts = null;
+        for (int i = 0; i < data.length; i++) {
+            int lead = data[i] & 0xFF;
+            if (lead < 0x80)
+                continue;
+            if (parts == null)
+                parts = new boolean[data.length];
+            int length = lead >= 0xF0 && lead <= 0xF4 ? 4
+                : lead >= 0xE0 ? (lead <= 0xEF ? 3 : 0)
+                : lead >= 0xC2 ? 2 : 0;
+            if (length == 0 || i + length > data.length)
+                continue;
+            int codePoint = lead & (0x7F >> length);
+            boolean wellFormed = true;
+            for (int k = 1; k < length && wellFormed; k++) {
+                int b = data[i + k] & 0xFF;
+                wellFormed = (b & 0xC0) == 0x80;
+                codePoint = (codePoint << 6) | (b & 0x3F);
+            }
+            if (wellFormed && Character.isJavaIdentifierPart(codePoint)) {
+                for (int k = 0; k < length; k++)
+                    parts[i + k] = true;
+                i += length - 1;
+            }
+        }
+        return parts;
+    }
+}
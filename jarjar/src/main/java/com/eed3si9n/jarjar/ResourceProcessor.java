@@ -22,15 +22,33 @@ import com.eed3si9n.jarjar.util.JarProcessor;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 class ResourceProcessor implements JarProcessor
 {
     private final static String META_INF_SERVICES = "META-INF/services/";
     private PackageRemapper pr;
+    private final Pattern contentResources;
+    private final ResourceContentRemapper contentRemapper;
 
     public ResourceProcessor(PackageRemapper pr) {
+        this(pr, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param pr the remapper for names
+     * @param contentGlobs the resources whose text has the names in it mapped as well, such as
+     * <code>META-INF/spring.factories</code> or <code>**.properties</code>: in these globs over
+     * the entry name <code>*</code> and <code>?</code> stay within a directory, while
+     * <code>**</code> crosses directories
+     */
+    public ResourceProcessor(PackageRemapper pr, List<String> contentGlobs) {
         this.pr = pr;
+        this.contentResources = contentGlobs.isEmpty() ? null : globs(contentGlobs);
+        this.contentRemapper = contentGlobs.isEmpty() ? null : new ResourceContentRemapper(pr);
     }
 
     public boolean process(EntryStruct struct) throws IOException {
@@ -41,6 +59,10 @@ class ResourceProcessor implements JarProcessor
                 struct.name = remapService(struct.name);
                 struct.data = remapServiceProviders(struct.data);
                 break;
+            case CONTENT:
+                struct.data = contentRemapper.remap(struct.data);
+                struct.name = pr.mapPath(struct.name);
+                break;
             case OTHER:
                 struct.name = pr.mapPath(struct.name);
                 break;
@@ -48,6 +70,16 @@ class ResourceProcessor implements JarProcessor
         return true;
     }
 
+    /**
+     * Returns the name {@link #process} gives an entry of <code>name</code> that is not a class
+     * file, which does not depend on what the entry holds.
+     */
+    public String mapName(String name) {
+        if (name.startsWith(META_INF_SERVICES) && !name.equals(META_INF_SERVICES))
+            return remapService(name);
+        return pr.mapPath(name);
+    }
+
     private String remapService(String serviceFile) {
         int idx = serviceFile.lastIndexOf('/');
         return META_INF_SERVICES + pr.mapValue(serviceFile.substring(idx + 1));
@@ -70,12 +102,40 @@ class ResourceProcessor implements JarProcessor
         // https://docs.oracle.com/en/java/javase/11/docs/api/java.base/java/util/ServiceLoader.html
         if (struct.name.startsWith(META_INF_SERVICES) && !struct.name.equals(META_INF_SERVICES))
             return Resource.SERVICE_PROVIDER_CONFIGURATION;
+        if (contentResources != null && contentResources.matcher(struct.name).matches())
+            return Resource.CONTENT;
         return Resource.OTHER;
     }
 
+    private static Pattern globs(List<String> globs) {
+        StringBuilder sb = new StringBuilder();
+        for (String glob : globs) {
+            if (sb.length() > 0)
+                sb.append('|');
+            for (int i = 0, len = glob.length(); i < len; i++) {
+                char c = glob.charAt(i);
+                if (glob.startsWith("**/", i)) {
+                    sb.append("(?:.*/)?");
+                    i += 2;
+                } else if (glob.startsWith("**", i)) {
+                    sb.append(".*");
+                    i++;
+                } else if (c == '*') {
+                    sb.append("[^/]*");
+                } else if (c == '?') {
+                    sb.append("[^/]");
+                } else {
+                    sb.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+
     private enum Resource {
         CLASS_FILE,
         SERVICE_PROVIDER_CONFIGURATION,
+        CONTENT,
         OTHER
     }
 }
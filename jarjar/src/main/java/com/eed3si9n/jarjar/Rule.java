@@ -27,4 +27,8 @@ public class Rule extends PatternElement
     public String getResult() {
         return result;
     }
+
+    public String toString() {
+        return super.toString() + " " + result;
+    }
 }
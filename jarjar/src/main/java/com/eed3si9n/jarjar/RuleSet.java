@@ -0,0 +1,269 @@
+package com.eed3si9n.jarjar;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of rules, zaps and keeps compiled once, to be handed to any number of processors, on any
+ * number of threads. The patterns are copied in, so changing them afterwards changes nothing here.
+ * It can also name the resources whose text has class names renamed in it, as globs over the entry
+ * name (see ResourceProcessor).
+ *
+ * <p>{@link #writeTo} stores the patterns in a compact binary form that {@link #readFrom} loads
+ * without going through a rules file, and {@link #getFingerprint} is the SHA-256 of that form,
+ * which only depends on the patterns, the resource globs and their order.
+ */
+public final class RuleSet
+{
+    private static final int MAGIC = 0x4A4A5253; // "JJRS"
+    private static final int FORMAT = 1;
+    private static final int RULE = 0;
+    private static final int ZAP = 1;
+    private static final int KEEP = 2;
+    private static final int RESOURCE = 3;
+
+    private final List<PatternElement> patterns;
+    private final List<Rule> rules;
+    private final List<Zap> zaps;
+    private final List<Keep> keeps;
+    private final List<String> resourceGlobs;
+    private final List<Wildcard> ruleWildcards;
+    private final WildcardMatcher ruleMatcher;
+    private final WildcardMatcher zapMatcher;
+    private final WildcardMatcher keepMatcher;
+    private final byte[] encoded;
+    private final String fingerprint;
+
+    public RuleSet(List<? extends PatternElement> patterns) {
+        this(patterns, Collections.<String>emptyList());
+    }
+
+    public RuleSet(List<? extends PatternElement> patterns, List<String> resourceGlobs) {
+        this(patterns, resourceGlobs, null);
+    }
+
+    // reuses the compiled rules of other, which has the same ones
+    private RuleSet(List<? extends PatternElement> patterns, List<String> resourceGlobs,
+                    RuleSet other) {
+        List<PatternElement> all = new ArrayList<PatternElement>();
+        List<Rule> ruleList = new ArrayList<Rule>();
+        List<Zap> zapList = new ArrayList<Zap>();
+        List<Keep> keepList = new ArrayList<Keep>();
+        for (PatternElement pattern : patterns) {
+            if (pattern instanceof Rule) {
+                Rule rule = new Rule();
+                rule.setPattern(pattern.getPattern());
+                rule.setResult(((Rule) pattern).getResult());
+                ruleList.add(rule);
+                all.add(rule);
+            } else if (pattern instanceof Zap) {
+                Zap zap = new Zap();
+                zap.setPattern(pattern.getPattern());
+                zapList.add(zap);
+                all.add(zap);
+            } else if (pattern instanceof Keep) {
+                Keep keep = new Keep();
+                keep.setPattern(pattern.getPattern());
+                keepList.add(keep);
+                all.add(keep);
+            }
+        }
+        this.patterns = Collections.unmodifiableList(all);
+        rules = Collections.unmodifiableList(ruleList);
+        zaps = Collections.unmodifiableList(zapList);
+        keeps = Collections.unmodifiableList(keepList);
+        this.resourceGlobs = Collections.unmodifiableList(new ArrayList<String>(resourceGlobs));
+        if (other != null) {
+            ruleWildcards = other.ruleWildcards;
+            ruleMatcher = other.ruleMatcher;
+        } else {
+            ruleWildcards = Collections.unmodifiableList(PatternElement.createWildcards(ruleList));
+            ruleMatcher = new WildcardMatcher(ruleWildcards);
+        }
+        zapMatcher = new WildcardMatcher(PatternElement.createWildcards(zapList));
+        keepMatcher = new WildcardMatcher(PatternElement.createWildcards(keepList));
+        encoded = encode(this.patterns, this.resourceGlobs);
+        fingerprint = sha256(encoded);
+    }
+
+    /**
+     * Reads a rule set from <code>file</code>, either written by {@link #writeTo} or a rules file.
+     */
+    public static RuleSet load(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            in.mark(4);
+            if (readMagic(in) == MAGIC) {
+                in.reset();
+                return readFrom(in);
+            }
+        } finally {
+            in.close();
+        }
+        return new RuleSet(RulesFileParser.parse(file));
+    }
+
+    /**
+     * Reads a rule set written by {@link #writeTo}.
+     */
+    public static RuleSet readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC)
+            throw new IOException("Not a rule set");
+        int format = data.readUnsignedByte();
+        if (format != FORMAT)
+            throw new IOException("Unknown rule set format " + format);
+        int count = data.readInt();
+        List<PatternElement> patterns = new ArrayList<PatternElement>(count);
+        List<String> resourceGlobs = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            int type = data.readUnsignedByte();
+            PatternElement pattern;
+            switch (type) {
+            case RESOURCE:
+                resourceGlobs.add(data.readUTF());
+                continue;
+            case RULE:
+                Rule rule = new Rule();
+                rule.setResult(data.readUTF());
+                pattern = rule;
+                break;
+            case ZAP:
+                pattern = new Zap();
+                break;
+            case KEEP:
+                pattern = new Keep();
+                break;
+            default:
+                throw new IOException("Unknown pattern type " + type);
+            }
+            pattern.setPattern(data.readUTF());
+            patterns.add(pattern);
+        }
+        return new RuleSet(patterns, resourceGlobs);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(encoded);
+    }
+
+    /**
+     * Returns this rule set without the zaps and keeps that match none of
+     * <code>entryNames</code>, as {@link PatternElement#relevantPatterns} does, sharing the
+     * compiled rules with this one.
+     */
+    public RuleSet relevantTo(Collection<String> entryNames) {
+        List<PatternElement> relevant = PatternElement.relevantPatterns(patterns, entryNames);
+        return (relevant.size() == patterns.size()) ? this : new RuleSet(relevant, resourceGlobs, this);
+    }
+
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    public List<PatternElement> getPatterns() {
+        return patterns;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public List<Zap> getZaps() {
+        return zaps;
+    }
+
+    public List<Keep> getKeeps() {
+        return keeps;
+    }
+
+    public List<String> getResourceGlobs() {
+        return resourceGlobs;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    List<Wildcard> getRuleWildcards() {
+        return ruleWildcards;
+    }
+
+    WildcardMatcher getRuleMatcher() {
+        return ruleMatcher;
+    }
+
+    WildcardMatcher getZapMatcher() {
+        return zapMatcher;
+    }
+
+    WildcardMatcher getKeepMatcher() {
+        return keepMatcher;
+    }
+
+    public String toString() {
+        return resourceGlobs.isEmpty() ? patterns.toString() : patterns + " " + resourceGlobs;
+    }
+
+    // or -1 if the file is too short to be a rule set
+    private static int readMagic(InputStream in) throws IOException {
+        try {
+            return new DataInputStream(in).readInt();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] encode(List<PatternElement> patterns, List<String> resourceGlobs) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT);
+            out.writeInt(patterns.size() + resourceGlobs.size());
+            for (PatternElement pattern : patterns) {
+                if (pattern instanceof Rule) {
+                    out.writeByte(RULE);
+                    out.writeUTF(((Rule) pattern).getResult());
+                } else {
+                    out.writeByte((pattern instanceof Zap) ? ZAP : KEEP);
+                }
+                out.writeUTF(pattern.getPattern());
+            }
+            for (String glob : resourceGlobs) {
+                out.writeByte(RESOURCE);
+                out.writeUTF(glob);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.eed3si9n.jarjar;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds out whether a text contains any of a set of literals, in one pass over the text however
+ * many literals there are (an Aho-Corasick automaton). The text can be given whole or fed one
+ * char at a time through {@link #next}, starting from state <code>0</code>.
+ */
+class SubstringMatcher
+{
+    private final boolean always;
+    private final char[][] keys;
+    private final int[][] targets;
+    private final int[] fail;
+    private final boolean[] match;
+
+    public SubstringMatcher(Collection<String> literals) {
+        List<Map<Character, Integer>> goTo = new ArrayList<Map<Character, Integer>>();
+        List<Boolean> ends = new ArrayList<Boolean>();
+        goTo.add(new TreeMap<Character, Integer>());
+        ends.add(false);
+        boolean empty = false;
+        for (String literal : literals) {
+            empty |= literal.isEmpty();
+            int state = 0;
+            for (int i = 0, len = literal.length(); i < len; i++) {
+                Integer t = goTo.get(state).get(literal.charAt(i));
+                if (t == null) {
+                    t = goTo.size();
+                    goTo.add(new TreeMap<Character, Integer>());
+                    ends.add(false);
+                    goTo.get(state).put(literal.charAt(i), t);
+                }
+                state = t;
+            }
+            ends.set(state, true);
+        }
+        always = empty;
+
+        int n = goTo.size();
+        keys = new char[n][];
+        targets = new int[n][];
+        match = new boolean[n];
+        for (int s = 0; s < n; s++) {
+            Map<Character, Integer> children = goTo.get(s);
+            keys[s] = new char[children.size()];
+            targets[s] = new int[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> child : children.entrySet()) {
+                keys[s][i] = child.getKey();
+                targets[s][i++] = child.getValue();
+            }
+            match[s] = ends.get(s);
+        }
+
+        // breadth first, so the state a failure link points to is always done before
+        fail = new int[n];
+        Queue<Integer> queue = new ArrayDeque<Integer>();
+        for (int t : targets[0])
+            queue.add(t);
+        while (!queue.isEmpty()) {
+            int s = queue.remove();
+            for (int i = 0; i < keys[s].length; i++) {
+                int t = targets[s][i];
+                int f = fail[s];
+                int g;
+                while ((g = child(f, keys[s][i])) < 0 && f != 0)
+                    f = fail[f];
+                fail[t] = (g >= 0) ? g : 0;
+                match[t] |= match[fail[t]];
+                queue.add(t);
+            }
+        }
+    }
+
+    /**
+     * Whether <code>text</code> contains any of the literals.
+     */
+    public boolean find(CharSequence text) {
+        if (always)
+            return true;
+        int state = 0;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            state = next(state, text.charAt(i));
+            if (match[state])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the state after reading <code>c</code> in <code>state</code>.
+     */
+    public int next(int state, char c) {
+        int t;
+        while ((t = child(state, c)) < 0 && state != 0)
+            state = fail[state];
+        return (t >= 0) ? t : 0;
+    }
+
+    /**
+     * Whether the text read so far to reach <code>state</code> contains any of the literals; a
+     * matcher built with an empty literal is in a matching state from the start.
+     */
+    public boolean isMatch(int state) {
+        return always || match[state];
+    }
+
+    private int child(int state, char c) {
+        int i = Arrays.binarySearch(keys[state], c);
+        return (i >= 0) ? targets[state][i] : -1;
+    }
+}
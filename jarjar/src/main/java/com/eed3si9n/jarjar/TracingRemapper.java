@@ -1,5 +1,6 @@
 package com.eed3si9n.jarjar;
 
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.commons.Remapper;
 
 public abstract class TracingRemapper extends Remapper {
@@ -12,4 +13,12 @@ public abstract class TracingRemapper extends Remapper {
      * Check if this instance remapped something already.
      */
     public abstract boolean hasChanges();
+
+    /**
+     * Check if remapping the class in <code>reader</code> could record any change at all; a class
+     * for which this is <code>false</code> can be left as it is without being visited.
+     */
+    public boolean mayChange(ClassReader reader) {
+        return true;
+    }
 }
@@ -27,7 +27,14 @@ class Wildcard
     private static Pattern star  = Pattern.compile("\\*");
     private static Pattern estar = Pattern.compile("\\+\\??\\)\\Z");
 
+    private static final int EXACT = 0;
+    private static final int ANY_TAIL = 1;
+    private static final int SEGMENT_TAIL = 2;
+    private static final int REGEX = 3;
+
     private final Pattern pattern;
+    private final String prefix;
+    private final int kind;
     private final int count;
     private final ArrayList<Object> parts = new ArrayList<Object>(16); // kept for debugging
     private final String[] strings;
@@ -48,6 +55,22 @@ class Wildcard
         this.pattern = Pattern.compile("\\A" + regex + "\\Z");
         this.count = this.pattern.matcher("foo").groupCount();
 
+        // the literal text up to the first wildcard, and for the common shapes a way to match
+        // without the regex; '$' is left to the regex, where it is an anchor
+        int star = pattern.indexOf('*');
+        this.prefix = (star < 0) ? pattern : pattern.substring(0, star);
+        String rest = pattern.substring(prefix.length());
+        if (pattern.indexOf('$') >= 0)
+            kind = REGEX;
+        else if (rest.isEmpty())
+            kind = EXACT;
+        else if (rest.equals("**"))
+            kind = ANY_TAIL;
+        else if (rest.equals("*"))
+            kind = SEGMENT_TAIL;
+        else
+            kind = REGEX;
+
         // TODO: check for illegal characters
         char[] chars = result.toCharArray();
         int max = 0;
@@ -108,6 +131,72 @@ class Wildcard
         return null;
     }
 
+    /**
+     * The literal start every matching value has.
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Same as {@link #replace}, for a value already known to start with {@link #getPrefix} and to
+     * pass {@link #isIdentifier}.
+     */
+    String replaceIdentifier(String value) {
+        String tail = value.substring(prefix.length());
+        if (kind == REGEX) {
+            Matcher matcher = pattern.matcher(value);
+            if (!matcher.matches())
+                return null;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < strings.length; i++)
+                sb.append((refs[i] >= 0) ? matcher.group(refs[i]) : strings[i]);
+            return sb.toString();
+        }
+        if (!tailMatches(tail))
+            return null;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < strings.length; i++)
+            sb.append((refs[i] > 0) ? tail : (refs[i] == 0) ? value : strings[i]);
+        return sb.toString();
+    }
+
+    /**
+     * Same as {@link #matches}, for a value already known to start with {@link #getPrefix} and to
+     * pass {@link #isIdentifier}.
+     */
+    boolean matchesIdentifier(String value) {
+        if (kind == REGEX)
+            return pattern.matcher(value).matches();
+        return tailMatches(value.substring(prefix.length()));
+    }
+
+    private boolean tailMatches(String tail) {
+        switch (kind) {
+        case EXACT:
+            return tail.isEmpty();
+        case ANY_TAIL:
+            return !hasLineTerminator(tail);
+        default:
+            return tail.indexOf('/') < 0;
+        }
+    }
+
+    static boolean isIdentifier(String value) {
+        return checkIdentifierChars(value, "/");
+    }
+
+    // '.' in the regex does not match these
+    private static boolean hasLineTerminator(String value) {
+        for (int i = 0, len = value.length(); i < len; i++) {
+            switch (value.charAt(i)) {
+            case '\n': case '\r': case '\u0085': case '\u2028': case '\u2029':
+                return true;
+            }
+        }
+        return false;
+    }
+
     private Matcher getMatcher(String value) {
         Matcher matcher = pattern.matcher(value);
         if (matcher.matches() && checkIdentifierChars(value, "/"))
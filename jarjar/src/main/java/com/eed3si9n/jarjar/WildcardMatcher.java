@@ -0,0 +1,147 @@
+package com.eed3si9n.jarjar;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A list of wildcards compiled for lookup: the first wildcard in the list that matches a value
+ * wins, as if each were tried in turn, but only those whose literal prefix the value starts with
+ * are tried at all. The prefixes sit in a trie that a single walk along the value collects them
+ * from, so the cost no longer grows with the number of rules.
+ */
+class WildcardMatcher
+{
+    private final Wildcard[] wildcards;
+    private final Node root = new Node();
+
+    public WildcardMatcher(List<Wildcard> wildcards) {
+        this.wildcards = wildcards.toArray(new Wildcard[wildcards.size()]);
+        for (int i = 0; i < this.wildcards.length; i++) {
+            String prefix = this.wildcards[i].getPrefix();
+            Node node = root;
+            for (int j = 0, len = prefix.length(); j < len; j++)
+                node = node.child(prefix.charAt(j), true);
+            node.add(i);
+        }
+    }
+
+    public boolean isEmpty() {
+        return wildcards.length == 0;
+    }
+
+    /**
+     * Whether any of the wildcards matches <code>value</code>.
+     */
+    public boolean matches(String value) {
+        boolean checked = false;
+        Node node = root;
+        for (int i = 0, len = value.length(); node != null; i++) {
+            for (int j = 0; j < node.size; j++) {
+                if (!checked) {
+                    if (!Wildcard.isIdentifier(value))
+                        return false;
+                    checked = true;
+                }
+                if (wildcards[node.rules[j]].matchesIdentifier(value))
+                    return true;
+            }
+            if (i == len)
+                break;
+            node = node.child(value.charAt(i), false);
+        }
+        return false;
+    }
+
+    /**
+     * Sets in <code>matched</code> the index of every wildcard that matches <code>value</code>;
+     * those already set are not tried again.
+     */
+    public void collectMatches(String value, BitSet matched) {
+        boolean checked = false;
+        Node node = root;
+        for (int i = 0, len = value.length(); node != null; i++) {
+            for (int j = 0; j < node.size; j++) {
+                int rule = node.rules[j];
+                if (matched.get(rule))
+                    continue;
+                if (!checked) {
+                    if (!Wildcard.isIdentifier(value))
+                        return;
+                    checked = true;
+                }
+                if (wildcards[rule].matchesIdentifier(value))
+                    matched.set(rule);
+            }
+            if (i == len)
+                break;
+            node = node.child(value.charAt(i), false);
+        }
+    }
+
+    /**
+     * Returns <code>value</code> rewritten by the first matching wildcard, or <code>null</code>
+     * if none matches.
+     */
+    public String replace(String value) {
+        int best = wildcards.length;
+        String result = null;
+        boolean checked = false;
+        Node node = root;
+        for (int i = 0, len = value.length(); node != null; i++) {
+            // rules are added in order, so each node lists them ascending
+            for (int j = 0; j < node.size && node.rules[j] < best; j++) {
+                if (!checked) {
+                    if (!Wildcard.isIdentifier(value))
+                        return null;
+                    checked = true;
+                }
+                String test = wildcards[node.rules[j]].replaceIdentifier(value);
+                if (test != null) {
+                    best = node.rules[j];
+                    result = test;
+                    break;
+                }
+            }
+            if (i == len)
+                break;
+            node = node.child(value.charAt(i), false);
+        }
+        return result;
+    }
+
+    private static class Node
+    {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private int[] rules = new int[0];
+        private int size;
+
+        Node child(char c, boolean create) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0)
+                return children[i];
+            if (!create)
+                return null;
+            i = -i - 1;
+            int n = keys.length;
+            char[] newKeys = new char[n + 1];
+            Node[] newChildren = new Node[n + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(keys, i, newKeys, i + 1, n - i);
+            System.arraycopy(children, i, newChildren, i + 1, n - i);
+            newKeys[i] = c;
+            newChildren[i] = new Node();
+            keys = newKeys;
+            children = newChildren;
+            return children[i];
+        }
+
+        void add(int rule) {
+            if (size == rules.length)
+                rules = Arrays.copyOf(rules, Math.max(2, size * 2));
+            rules[size++] = rule;
+        }
+    }
+}
@@ -22,18 +22,29 @@ import java.util.*;
 
 class ZapProcessor implements JarProcessor
 {
-    private List<Wildcard> wildcards;
+    private final WildcardMatcher wildcards;
 
     public ZapProcessor(List<Zap> zapList) {
-        wildcards = PatternElement.createWildcards(zapList);
+        this(new WildcardMatcher(PatternElement.createWildcards(zapList)));
+    }
+
+    ZapProcessor(WildcardMatcher wildcards) {
+        this.wildcards = wildcards;
     }
 
     public boolean process(EntryStruct struct) throws IOException {
-        String name = struct.name;
-        String matchName = name.endsWith(".class") ?
+        return !zap(matchName(struct.name));
+    }
+
+    public NameDecision processName(String name) {
+        return zap(matchName(name)) ? NameDecision.DROP : NameDecision.PASS;
+    }
+
+    // also used by PatternElement
+    static String matchName(String name) {
+        return name.endsWith(".class") ?
                 name.substring(0, name.length() - 6) :
                 replaceResourceName(name);
-        return !zap(matchName);
     }
 
     private static final String RESOURCE_SUFFIX = "RESOURCE";
@@ -47,12 +58,7 @@ class ZapProcessor implements JarProcessor
     }
     
     private boolean zap(String desc) {
-        // TODO: optimize
-        for (Wildcard wildcard : wildcards) {
-            if (wildcard.matches(desc))
-                return true;
-        }
-        return false;
+        return wildcards.matches(desc);
     }
 }
     
@@ -0,0 +1,73 @@
+package com.eed3si9n.jarjar.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Looks each entry up in an {@link EntryCache} before handing it to <code>proc</code>, and
+ * stores what <code>proc</code> made of it otherwise, keyed by the entry and by the
+ * <code>fingerprint</code> of everything that decides how <code>proc</code> processes it.
+ *
+ * <p>Only a processor that treats each entry on its own can be cached: one with keep rules, which
+ * decides on an entry from the rest of the jar, cannot. Whatever <code>proc</code> reports while
+ * processing an entry is not reported again when the entry comes from the cache.
+ */
+public class CachingJarProcessor implements JarProcessor
+{
+    private static final int FORMAT = 1;
+    private static final int KEPT = 1;
+    private static final int SAME_DATA = 2;
+
+    private final JarProcessor proc;
+    private final EntryCache cache;
+    private final String fingerprint;
+
+    public CachingJarProcessor(JarProcessor proc, EntryCache cache, String fingerprint) {
+        this.proc = proc;
+        this.cache = cache;
+        this.fingerprint = fingerprint;
+    }
+
+    public boolean process(EntryStruct struct) throws IOException {
+        String key = EntryCache.key(fingerprint, struct);
+        byte[] value = cache.get(key);
+        if (value != null) {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+                if (in.readByte() == FORMAT) {
+                    int flags = in.readByte();
+                    String name = in.readUTF();
+                    if ((flags & SAME_DATA) == 0)
+                        struct.data = Arrays.copyOfRange(value, value.length - in.available(), value.length);
+                    struct.name = name;
+                    return (flags & KEPT) != 0;
+                }
+            } catch (IOException e) {
+                // written by something else, so worked out again below
+            }
+        }
+
+        byte[] data = struct.data;
+        boolean kept = proc.process(struct);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            struct.name.length() + 8 + (struct.data == data ? 0 : struct.data.length));
+        DataOutputStream out = new DataOutputStream(bytes);
+        boolean same = struct.data == data || Arrays.equals(struct.data, data);
+        out.writeByte(FORMAT);
+        out.writeByte((kept ? KEPT : 0) | (same ? SAME_DATA : 0));
+        out.writeUTF(struct.name);
+        if (!same)
+            out.write(struct.data);
+        out.flush();
+        cache.put(key, bytes.toByteArray());
+        return kept;
+    }
+
+    public NameDecision processName(String name) {
+        return proc.processName(name);
+    }
+}
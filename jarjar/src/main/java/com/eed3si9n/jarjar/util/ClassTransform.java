@@ -0,0 +1,23 @@
+package com.eed3si9n.jarjar.util;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * A class rewrite that can be composed with others into a single visitor chain, so that a class is
+ * read and written once for all of them instead of once per rewrite.
+ */
+public interface ClassTransform
+{
+    /**
+     * Returns a visitor applying this rewrite that passes its result on to <code>parent</code>.
+     */
+    ClassVisitor transform(ClassVisitor parent, Remapper remapper);
+
+    /**
+     * Whether every change this rewrite makes goes through <code>remapper</code>. A class for which
+     * the remapper records no change then keeps its original bytes; a rewrite that returns
+     * <code>false</code> here always has the class written anew.
+     */
+    boolean tracksChanges();
+}
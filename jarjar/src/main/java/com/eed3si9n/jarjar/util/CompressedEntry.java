@@ -0,0 +1,48 @@
+package com.eed3si9n.jarjar.util;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A jar entry whose data has already been deflated, ready to be handed to {@link JarWriter}.
+ */
+public class CompressedEntry {
+    public String name;
+    public long time;
+    public long crc;
+    public long size;
+    public byte[] data;
+
+    /**
+     * Deflates <code>data</code> the same way {@link java.util.zip.ZipOutputStream} would when the
+     * whole entry is written in one call, so the compressed bytes are identical.
+     *
+     * @param deflater a <code>nowrap</code> deflater; it is reset before use
+     */
+    public static CompressedEntry deflate(String name, long time, byte[] data, Deflater deflater) {
+        CompressedEntry result = new CompressedEntry();
+        result.name = name;
+        result.time = time;
+        result.size = data.length;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        result.crc = crc.getValue();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, data.length / 2));
+        byte[] buf = new byte[0x2000];
+        deflater.reset();
+        if (data.length > 0) {
+            deflater.setInput(data, 0, data.length);
+            while (!deflater.needsInput()) {
+                out.write(buf, 0, deflater.deflate(buf, 0, buf.length));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf, 0, buf.length));
+        }
+        result.data = out.toByteArray();
+        return result;
+    }
+}
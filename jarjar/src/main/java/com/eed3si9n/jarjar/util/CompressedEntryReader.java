@@ -0,0 +1,183 @@
+package com.eed3si9n.jarjar.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the compressed data of jar entries as it is stored in the file, without inflating it.
+ *
+ * <p>An entry read this way can be handed to {@link JarWriter} unchanged when nothing touched its
+ * data, which saves both the inflate and the deflate. Only deflated entries are available; stored
+ * and encrypted entries, and names that appear more than once, have to go through the regular
+ * path. Reads are positional, so one reader can be shared by several threads.
+ */
+public class CompressedEntryReader implements Closeable
+{
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+    private static final int LOCHDR = 30;
+    private static final int CENHDR = 46;
+    private static final int ENDHDR = 22;
+    private static final int ZIP64_LOCHDR = 20;
+    private static final int ZIP64_EXTID = 0x0001;
+    private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGICCOUNT = 0xFFFF;
+    private static final int DEFLATED = 8;
+
+    private final FileChannel channel;
+    private final Map<String, Location> locations = new HashMap<String, Location>();
+
+    public CompressedEntryReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            readCentralDirectory();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw new ZipException("invalid central directory in " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Returns the entry called <code>name</code>, stamped with <code>time</code>, with its data
+     * still deflated, or <code>null</code> if it is not available that way. As a guard against the
+     * caller having changed the array in place, <code>data</code> must also agree with the stored
+     * size and CRC.
+     */
+    public CompressedEntry read(String name, byte[] data, long time) throws IOException {
+        Location loc = locations.get(name);
+        if (loc == null || loc.csize > Integer.MAX_VALUE || loc.size != data.length)
+            return null;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (crc.getValue() != loc.crc)
+            return null;
+        ByteBuffer header = read(loc.offset, LOCHDR);
+        if (header.getInt(0) != LOCSIG)
+            throw new ZipException("invalid local header for " + name);
+        long start = loc.offset + LOCHDR + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+        CompressedEntry entry = new CompressedEntry();
+        entry.name = name;
+        entry.time = time;
+        entry.crc = loc.crc;
+        entry.size = loc.size;
+        entry.data = read(start, (int) loc.csize).array();
+        return entry;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long length = channel.size();
+        int tail = (int) Math.min(length, ENDHDR + 0xFFFF);
+        ByteBuffer buf = read(length - tail, tail);
+        int end = tail - ENDHDR;
+        while (end >= 0 && buf.getInt(end) != ENDSIG)
+            end--;
+        if (end < 0)
+            throw new ZipException("end of central directory not found");
+        long endPos = length - tail + end;
+        long count = buf.getShort(end + 10) & 0xffff;
+        long cenSize = buf.getInt(end + 12) & ZIP64_MAGICVAL;
+        long cenOffset = buf.getInt(end + 16) & ZIP64_MAGICVAL;
+        if (count == ZIP64_MAGICCOUNT || cenSize == ZIP64_MAGICVAL || cenOffset == ZIP64_MAGICVAL) {
+            ByteBuffer locator = read(endPos - ZIP64_LOCHDR, ZIP64_LOCHDR);
+            if (locator.getInt(0) == ZIP64_LOCSIG) {
+                long zip64EndPos = locator.getLong(8);
+                ByteBuffer zip64End = read(zip64EndPos, 56);
+                if (zip64End.getInt(0) != ZIP64_ENDSIG)
+                    throw new ZipException("invalid zip64 end of central directory");
+                count = zip64End.getLong(32);
+                cenSize = zip64End.getLong(40);
+                cenOffset = zip64End.getLong(48);
+                endPos = zip64EndPos;
+            }
+        }
+        // bytes prepended to the archive (a launcher script, say) shift every offset
+        long base = endPos - cenSize - cenOffset;
+        if (cenSize > Integer.MAX_VALUE || base < 0)
+            throw new ZipException("invalid central directory");
+
+        ByteBuffer cen = read(base + cenOffset, (int) cenSize);
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (cen.getInt(pos) != CENSIG)
+                throw new ZipException("invalid central directory header");
+            int flag = cen.getShort(pos + 8) & 0xffff;
+            int method = cen.getShort(pos + 10) & 0xffff;
+            int nlen = cen.getShort(pos + 28) & 0xffff;
+            int elen = cen.getShort(pos + 30) & 0xffff;
+            int clen = cen.getShort(pos + 32) & 0xffff;
+            Location loc = new Location();
+            loc.crc = cen.getInt(pos + 16) & ZIP64_MAGICVAL;
+            loc.csize = cen.getInt(pos + 20) & ZIP64_MAGICVAL;
+            loc.size = cen.getInt(pos + 24) & ZIP64_MAGICVAL;
+            loc.offset = cen.getInt(pos + 42) & ZIP64_MAGICVAL;
+            String name = new String(cen.array(), pos + CENHDR, nlen, StandardCharsets.UTF_8);
+            readZip64Extra(cen, pos + CENHDR + nlen, elen, loc);
+            loc.offset += base;
+            pos += CENHDR + nlen + elen + clen;
+
+            // a repeated name is ambiguous, so neither copy is served
+            boolean usable = method == DEFLATED && (flag & 1) == 0 && !locations.containsKey(name);
+            locations.put(name, usable ? loc : null);
+        }
+    }
+
+    private static void readZip64Extra(ByteBuffer cen, int off, int len, Location loc) {
+        int end = off + len;
+        while (off + 4 <= end) {
+            int id = cen.getShort(off) & 0xffff;
+            int size = cen.getShort(off + 2) & 0xffff;
+            off += 4;
+            if (id == ZIP64_EXTID) {
+                int pos = off;
+                if (loc.size == ZIP64_MAGICVAL && pos + 8 <= off + size) {
+                    loc.size = cen.getLong(pos);
+                    pos += 8;
+                }
+                if (loc.csize == ZIP64_MAGICVAL && pos + 8 <= off + size) {
+                    loc.csize = cen.getLong(pos);
+                    pos += 8;
+                }
+                if (loc.offset == ZIP64_MAGICVAL && pos + 8 <= off + size)
+                    loc.offset = cen.getLong(pos);
+            }
+            off += size;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0)
+                throw new EOFException();
+        }
+        return buf;
+    }
+
+    private static class Location {
+        long crc;
+        long size;
+        long csize;
+        long offset;
+    }
+}
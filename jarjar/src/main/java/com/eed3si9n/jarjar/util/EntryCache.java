@@ -0,0 +1,292 @@
+package com.eed3si9n.jarjar.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A directory of values stored by key, meant for keys that are the SHA-256 of whatever the value
+ * was made from, which any number of runs and processes can use at once.
+ *
+ * <p>Each value is a file of its own. It is written to a temporary file and moved into place, so a
+ * reader finds either all of it or nothing, and two processes storing the same key just replace
+ * one copy with another. Reading a value touches its file, and once the files hold more than
+ * <code>maxBytes</code>, the least recently used ones are deleted by {@link #trim}, which
+ * {@link #put} also runs now and then. A value deleted while another process reads it is simply
+ * missed there.
+ */
+public class EntryCache
+{
+    private static final String TEMP_SUFFIX = ".tmp";
+    // a temporary file this old was left behind by a process that died
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000L;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // bumped when what is stored for a key changes
+    private static final int FORMAT = 1;
+    // the hash of each code source, by its location
+    private static final Map<String, String> BUILDS = new ConcurrentHashMap<String, String>();
+
+    private final Path dir;
+    private final long maxBytes;
+    private final AtomicLong written = new AtomicLong();
+
+    public EntryCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the SHA-256 of the string form of <code>parts</code>, of {@link #FORMAT} and of the
+     * build of jarjar, so that values stored by another build are not used, even one of the same
+     * version.
+     */
+    public static String fingerprint(Object... parts) {
+        MessageDigest digest = sha256();
+        update(digest, String.valueOf(FORMAT));
+        update(digest, buildOf(EntryCache.class));
+        for (Object part : parts)
+            update(digest, String.valueOf(part));
+        return hex(digest.digest());
+    }
+
+    /**
+     * Returns the SHA-256 of the jar or directory of classes that <code>c</code> was loaded from,
+     * worked out once for each, or the empty string if it cannot be read. Code that processes
+     * entries outside of jarjar passes this for its own classes to {@link #fingerprint}.
+     */
+    public static String buildOf(Class<?> c) {
+        CodeSource source = c.getProtectionDomain().getCodeSource();
+        if (source == null || source.getLocation() == null)
+            return "";
+        return BUILDS.computeIfAbsent(source.getLocation().toString(), location -> {
+            try {
+                return hashOf(Paths.get(source.getLocation().toURI()));
+            } catch (Exception e) {
+                return "";
+            }
+        });
+    }
+
+    private static String hashOf(Path location) throws IOException {
+        MessageDigest digest = sha256();
+        List<Path> files = new ArrayList<Path>();
+        if (Files.isDirectory(location)) {
+            try (Stream<Path> paths = Files.walk(location)) {
+                paths.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+        } else {
+            files.add(location);
+        }
+        byte[] buf = new byte[0x2000];
+        for (Path file : files) {
+            update(digest, location.relativize(file).toString());
+            try (InputStream in = Files.newInputStream(file)) {
+                for (int n; (n = in.read(buf)) >= 0; )
+                    digest.update(buf, 0, n);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Returns the key of an entry processed by rules with the given <code>fingerprint</code>.
+     */
+    public static String key(String fingerprint, EntryStruct struct) {
+        MessageDigest digest = sha256();
+        update(digest, fingerprint);
+        update(digest, struct.name);
+        digest.update((byte) (struct.skipTransform ? 1 : 0));
+        digest.update(struct.data);
+        return hex(digest.digest());
+    }
+
+    /**
+     * Returns the value stored for <code>key</code>, or <code>null</code> if there is none.
+     */
+    public byte[] get(String key) {
+        Path path = path(key);
+        try {
+            byte[] value = Files.readAllBytes(path);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return value;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Copies the value stored for <code>key</code> to <code>target</code>, replacing it, and
+     * returns whether there was one.
+     */
+    public boolean copyTo(String key, Path target) {
+        Path path = path(key);
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stores <code>value</code> for <code>key</code>. A value that cannot be stored is left out,
+     * as the cache only saves work.
+     */
+    public void put(String key, byte[] value) {
+        store(key, value, null);
+    }
+
+    /**
+     * Stores the contents of <code>source</code> for <code>key</code>, as {@link #put(String, byte[])}
+     * does.
+     */
+    public void put(String key, Path source) {
+        store(key, null, source);
+    }
+
+    private void store(String key, byte[] value, Path source) {
+        Path path = path(key);
+        Path temp = null;
+        long size = 0;
+        try {
+            Files.createDirectories(path.getParent());
+            temp = Files.createTempFile(path.getParent(), key, TEMP_SUFFIX);
+            if (value != null)
+                Files.write(temp, value);
+            else
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            size = Files.size(temp);
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            // another process may hold the file, in which case it stores the same value
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                }
+            }
+        }
+        if (written.addAndGet(size) > maxBytes / 8) {
+            written.set(0);
+            trim();
+        }
+    }
+
+    /**
+     * Deletes the least recently used values until the rest take at most <code>maxBytes</code>,
+     * and the temporary files of writes that never finished.
+     */
+    public void trim() {
+        final List<Path> files = new ArrayList<Path>();
+        final List<BasicFileAttributes> attributes = new ArrayList<BasicFileAttributes>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(dir)) {
+            for (Path shard : shards) {
+                if (!Files.isDirectory(shard))
+                    continue;
+                try (DirectoryStream<Path> values = Files.newDirectoryStream(shard)) {
+                    for (Path value : values) {
+                        BasicFileAttributes attrs;
+                        try {
+                            attrs = Files.readAttributes(value, BasicFileAttributes.class);
+                        } catch (IOException e) {
+                            continue;
+                        }
+                        if (value.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                            if (now - attrs.lastModifiedTime().toMillis() > STALE_TEMP_MILLIS)
+                                delete(value);
+                            continue;
+                        }
+                        files.add(value);
+                        attributes.add(attrs);
+                        total += attrs.size();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+        if (total <= maxBytes)
+            return;
+
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < files.size(); i++)
+            order.add(i);
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return attributes.get(a).lastModifiedTime().compareTo(attributes.get(b).lastModifiedTime());
+            }
+        });
+        for (int i = 0; i < order.size() && total > maxBytes; i++) {
+            int oldest = order.get(i);
+            if (delete(files.get(oldest)))
+                total -= attributes.get(oldest).size();
+        }
+    }
+
+    private Path path(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static boolean delete(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // still open in another process on some platforms; it goes on a later trim
+            return false;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        digest.update(new byte[] {
+            (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+            (byte) (bytes.length >>> 8), (byte) bytes.length
+        });
+        digest.update(bytes);
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -33,4 +33,17 @@ public interface JarProcessor
      * @throws IOException
      */
     boolean process(EntryStruct struct) throws IOException;
+
+    /**
+     * Looks at an entry by its name alone, before its data is read, so that an entry that is going
+     * to be thrown away anyway is never read or inflated. {@link #process} is not called for an
+     * entry that this returns {@link NameDecision#DROP} for.
+     * <p>
+     * The default is {@link NameDecision#PROCESS}, which is always safe.
+     *
+     * @param name The name of the jar entry.
+     */
+    default NameDecision processName(String name) {
+        return NameDecision.PROCESS;
+    }
 }
@@ -41,5 +41,17 @@ public class JarProcessorChain implements JarProcessor
         }
         return true;
     }
+
+    /**
+     * Asks the processors in turn for as long as they pass the entry on untouched.
+     */
+    public NameDecision processName(String name) {
+        for (JarProcessor processor : chain) {
+            NameDecision decision = processor.processName(name);
+            if (decision != NameDecision.PASS)
+                return decision;
+        }
+        return NameDecision.PASS;
+    }
 }
   
@@ -23,7 +23,6 @@ import static com.eed3si9n.jarjar.misplaced.MisplacedClassProcessor.VERSIONED_CL
 import com.eed3si9n.jarjar.TracingRemapper;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.Remapper;
 
 abstract public class JarTransformer extends RemappingJarProcessor {
@@ -43,9 +42,9 @@ abstract public class JarTransformer extends RemappingJarProcessor {
                 return true;
             }
 
-            GetNameClassWriter w = new GetNameClassWriter(ClassWriter.COMPUTE_MAXS);
+            GetNameClassWriter w = new GetNameClassWriter(0);
             try {
-                reader.accept(transform(w, remapper), ClassReader.EXPAND_FRAMES);
+                reader.accept(transform(w, remapper), 0);
             } catch (RuntimeException e) {
                 throw new IOException("Unable to transform " + struct.name, e);
             }
@@ -20,7 +20,7 @@ import com.eed3si9n.jarjar.TracingRemapper;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.commons.Remapper;
 
-public class JarTransformerChain extends JarTransformer
+public class JarTransformerChain extends JarTransformer implements ClassTransform
 {
     private final RemappingClassTransformer[] chain;
 
@@ -29,10 +29,14 @@ public class JarTransformerChain extends JarTransformer
         this.chain = chain.clone();
     }
 
-    protected ClassVisitor transform(ClassVisitor parent, Remapper remapper) {
+    public ClassVisitor transform(ClassVisitor parent, Remapper remapper) {
         for (int i = chain.length - 1; i >= 0; i--) {
             parent = chain[i].update(remapper, parent);
         }
         return parent;
     }
+
+    public boolean tracksChanges() {
+        return true;
+    }
 }
@@ -0,0 +1,415 @@
+package com.eed3si9n.jarjar.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipException;
+
+/**
+ * Writes {@link CompressedEntry} instances to a jar file.
+ *
+ * <p>The output uses the same record layout as {@link java.util.jar.JarOutputStream} (deflated
+ * entries followed by a data descriptor, the JAR magic extra field on the first entry), so a jar
+ * written here is byte-for-byte the one <code>JarOutputStream</code> would produce. The difference
+ * is that the entry data arrives already compressed, which lets compression happen elsewhere.
+ *
+ * <p>When <code>removeEmptyDirectories</code> is set, directory entries that end up with no file
+ * below them are left out, with the same result as running the jar through
+ * {@link IoUtil#copyZipWithoutEmptyDirectories}. Entries that follow a directory whose fate is not
+ * known yet are held back, still compressed, until a file under that directory arrives or the
+ * writer is closed. Past the first few megabytes, the data of the entries held back goes to a
+ * temporary file instead of memory, so an empty directory near the start of a large jar costs disk
+ * rather than heap.
+ */
+public class JarWriter implements Closeable
+{
+    private static final int LOCSIG = 0x04034b50;
+    private static final int EXTSIG = 0x08074b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+    private static final int ZIP64_ENDHDR = 56;
+    private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGICCOUNT = 0xFFFF;
+    private static final int ZIP64_EXTID = 0x0001;
+    private static final int EXTID_NTFS = 0x000a;
+    private static final int EXTID_EXTT = 0x5455;
+    private static final int JAR_MAGIC = 0xCAFE;
+
+    private static final int DEFLATED = 8;
+    private static final int VERSION = 20;
+    private static final int FLAG = 0x0808; // data descriptor, UTF-8 names
+
+    private static final long DOSTIME_BEFORE_1980 = (1 << 21) | (1 << 16);
+    private static final long UPPER_UNIXTIME_BOUND = 0x7fffffff;
+    private static final long WINDOWS_EPOCH_IN_MICROSECONDS = -11644473600000000L;
+    private static final long WINDOWS_TIME_NOT_AVAILABLE = Long.MIN_VALUE;
+    private static final long DEFAULT_HOLD_IN_MEMORY = 8 << 20;
+
+    private final OutputStream out;
+    private final List<Record> records = new ArrayList<Record>();
+    private final Set<String> names = new HashSet<String>();
+    private final Calendar calendar = new GregorianCalendar();
+    private final boolean removeEmptyDirectories;
+    private final Set<String> liveDirectories = new HashSet<String>();
+    private final ArrayDeque<Held> held = new ArrayDeque<Held>();
+    private final long holdInMemory;
+    private long heldInMemory;
+    private File spillFile;
+    private RandomAccessFile spill;
+    private String first;
+    private long written;
+    private boolean closed;
+
+    public JarWriter(File file) throws IOException {
+        this(file, false);
+    }
+
+    public JarWriter(File file, boolean removeEmptyDirectories) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(file), 0x10000), removeEmptyDirectories);
+    }
+
+    public JarWriter(OutputStream out) {
+        this(out, false);
+    }
+
+    public JarWriter(OutputStream out, boolean removeEmptyDirectories) {
+        this(out, removeEmptyDirectories, DEFAULT_HOLD_IN_MEMORY);
+    }
+
+    /**
+     * @param holdInMemory how many bytes of compressed data the entries held back keep in memory
+     * before the rest goes to a temporary file
+     */
+    JarWriter(OutputStream out, boolean removeEmptyDirectories, long holdInMemory) {
+        this.out = out;
+        this.removeEmptyDirectories = removeEmptyDirectories;
+        this.holdInMemory = holdInMemory;
+    }
+
+    public void write(CompressedEntry entry) throws IOException {
+        if (!names.add(entry.name))
+            throw new ZipException("duplicate entry: " + entry.name);
+        // the JAR magic belongs to the first entry given, even if that one is later dropped
+        if (first == null)
+            first = entry.name;
+        if (!removeEmptyDirectories) {
+            emit(entry);
+            return;
+        }
+        boolean directory = entry.name.endsWith("/");
+        if (held.isEmpty() && (!directory || liveDirectories.contains(entry.name)))
+            emit(entry);
+        else
+            hold(entry);
+        if (!directory && markParentsLive(entry.name)) {
+            while (!held.isEmpty() && isLive(held.peek().entry))
+                emit(release(held.poll()));
+            if (held.isEmpty() && spill != null)
+                spill.setLength(0);
+        }
+    }
+
+    private void hold(CompressedEntry entry) throws IOException {
+        Held h = new Held();
+        h.entry = entry;
+        h.length = entry.data.length;
+        if (heldInMemory + h.length <= holdInMemory) {
+            heldInMemory += h.length;
+        } else {
+            if (spill == null) {
+                spillFile = File.createTempFile("jarjar", ".held");
+                spill = new RandomAccessFile(spillFile, "rw");
+            }
+            h.offset = spill.length();
+            spill.seek(h.offset);
+            spill.write(entry.data);
+            entry.data = null;
+        }
+        held.add(h);
+    }
+
+    private CompressedEntry release(Held h) throws IOException {
+        if (h.offset < 0) {
+            heldInMemory -= h.length;
+        } else {
+            h.entry.data = new byte[h.length];
+            spill.seek(h.offset);
+            spill.readFully(h.entry.data);
+        }
+        return h.entry;
+    }
+
+    private boolean markParentsLive(String name) {
+        boolean added = false;
+        int index = name.lastIndexOf('/');
+        while (index > 0 && liveDirectories.add(name.substring(0, index + 1))) {
+            added = true;
+            index = name.lastIndexOf('/', index - 1);
+        }
+        return added;
+    }
+
+    private boolean isLive(CompressedEntry entry) {
+        return !entry.name.endsWith("/") || liveDirectories.contains(entry.name);
+    }
+
+    private void emit(CompressedEntry entry) throws IOException {
+        Record r = new Record();
+        r.name = entry.name.getBytes(StandardCharsets.UTF_8);
+        r.dostime = javaToDosTime(entry.time);
+        r.mtime = (r.dostime == DOSTIME_BEFORE_1980 || yearOf(entry.time) > 2099) ? entry.time : null;
+        r.jarMagic = entry.name.equals(first);
+        r.crc = entry.crc;
+        r.size = entry.size;
+        r.csize = entry.data.length;
+        r.offset = written;
+        records.add(r);
+
+        writeInt(LOCSIG);
+        writeShort(VERSION);
+        writeShort(FLAG);
+        writeShort(DEFLATED);
+        writeInt(r.dostime);
+        writeInt(0);
+        writeInt(0);
+        writeInt(0);
+        writeShort(r.name.length);
+        int elen = r.jarMagic ? 4 : 0;
+        if (r.mtime != null)
+            elen += isNtfsTime(r.mtime) ? 36 : 9;
+        writeShort(elen);
+        writeBytes(r.name);
+        if (r.mtime != null)
+            writeTime(r.mtime, true);
+        if (r.jarMagic)
+            writeJarMagic();
+
+        writeBytes(entry.data);
+
+        writeInt(EXTSIG);
+        writeInt(r.crc);
+        if (r.csize >= ZIP64_MAGICVAL || r.size >= ZIP64_MAGICVAL) {
+            writeLong(r.csize);
+            writeLong(r.size);
+        } else {
+            writeInt(r.csize);
+            writeInt(r.size);
+        }
+    }
+
+    /**
+     * Writes the entries still held back, less the empty directories, then the central directory,
+     * and closes the underlying stream.
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            for (Held h : held) {
+                if (isLive(h.entry))
+                    emit(release(h));
+            }
+            held.clear();
+            long off = written;
+            for (Record r : records)
+                writeCEN(r);
+            writeEND(off, written - off);
+        } finally {
+            try {
+                if (spill != null) {
+                    spill.close();
+                    spillFile.delete();
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private void writeCEN(Record r) throws IOException {
+        long csize = r.csize;
+        long size = r.size;
+        long offset = r.offset;
+        int elenZIP64 = 0;
+        if (csize >= ZIP64_MAGICVAL) {
+            csize = ZIP64_MAGICVAL;
+            elenZIP64 += 8;
+        }
+        if (size >= ZIP64_MAGICVAL) {
+            size = ZIP64_MAGICVAL;
+            elenZIP64 += 8;
+        }
+        if (offset >= ZIP64_MAGICVAL) {
+            offset = ZIP64_MAGICVAL;
+            elenZIP64 += 8;
+        }
+        boolean hasZip64 = elenZIP64 > 0;
+        writeInt(CENSIG);
+        writeShort(hasZip64 ? 45 : VERSION);
+        writeShort(hasZip64 ? 45 : VERSION);
+        writeShort(FLAG);
+        writeShort(DEFLATED);
+        writeInt(r.dostime);
+        writeInt(r.crc);
+        writeInt(csize);
+        writeInt(size);
+        writeShort(r.name.length);
+        int elen = r.jarMagic ? 4 : 0;
+        if (hasZip64)
+            elen += elenZIP64 + 4;
+        if (r.mtime != null)
+            elen += isNtfsTime(r.mtime) ? 36 : 9;
+        writeShort(elen);
+        writeShort(0); // comment length
+        writeShort(0); // starting disk number
+        writeShort(0); // internal file attributes
+        writeInt(0);   // external file attributes
+        writeInt(offset);
+        writeBytes(r.name);
+        if (hasZip64) {
+            writeShort(ZIP64_EXTID);
+            writeShort(elenZIP64);
+            if (size == ZIP64_MAGICVAL)
+                writeLong(r.size);
+            if (csize == ZIP64_MAGICVAL)
+                writeLong(r.csize);
+            if (offset == ZIP64_MAGICVAL)
+                writeLong(r.offset);
+        }
+        if (r.mtime != null)
+            writeTime(r.mtime, false);
+        if (r.jarMagic)
+            writeJarMagic();
+    }
+
+    private void writeEND(long off, long len) throws IOException {
+        long xlen = Math.min(len, ZIP64_MAGICVAL);
+        long xoff = Math.min(off, ZIP64_MAGICVAL);
+        int count = records.size();
+        boolean hasZip64 = xlen == ZIP64_MAGICVAL || xoff == ZIP64_MAGICVAL || count >= ZIP64_MAGICCOUNT;
+        if (hasZip64) {
+            long off64 = written;
+            writeInt(ZIP64_ENDSIG);
+            writeLong(ZIP64_ENDHDR - 12);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(len);
+            writeLong(off);
+
+            writeInt(ZIP64_LOCSIG);
+            writeInt(0);
+            writeLong(off64);
+            writeInt(1);
+        }
+        int xcount = Math.min(count, ZIP64_MAGICCOUNT);
+        writeInt(ENDSIG);
+        writeShort(0);
+        writeShort(0);
+        writeShort(xcount);
+        writeShort(xcount);
+        writeInt(xlen);
+        writeInt(xoff);
+        writeShort(0);
+    }
+
+    // Info-ZIP extended timestamp, or NTFS time past 2038; the central directory only carries mtime.
+    private void writeTime(long mtime, boolean local) throws IOException {
+        if (isNtfsTime(mtime)) {
+            writeShort(EXTID_NTFS);
+            writeShort(32);
+            writeInt(0);
+            writeShort(0x0001);
+            writeShort(24);
+            writeLong((mtime * 1000 - WINDOWS_EPOCH_IN_MICROSECONDS) * 10);
+            writeLong(WINDOWS_TIME_NOT_AVAILABLE);
+            writeLong(WINDOWS_TIME_NOT_AVAILABLE);
+        } else {
+            writeShort(EXTID_EXTT);
+            writeShort(5);
+            writeByte(0x1);
+            writeInt(mtime / 1000);
+        }
+    }
+
+    private void writeJarMagic() throws IOException {
+        writeShort(JAR_MAGIC);
+        writeShort(0);
+    }
+
+    private static boolean isNtfsTime(long mtime) {
+        return mtime / 1000 > UPPER_UNIXTIME_BOUND;
+    }
+
+    private int yearOf(long time) {
+        calendar.setTimeInMillis(time);
+        return calendar.get(Calendar.YEAR);
+    }
+
+    // Same conversion as ZipEntry.setTime, in the default time zone.
+    private long javaToDosTime(long time) {
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980)
+            return DOSTIME_BEFORE_1980;
+        return ((year - 1980) << 25
+            | (calendar.get(Calendar.MONTH) + 1) << 21
+            | calendar.get(Calendar.DAY_OF_MONTH) << 16
+            | calendar.get(Calendar.HOUR_OF_DAY) << 11
+            | calendar.get(Calendar.MINUTE) << 5
+            | calendar.get(Calendar.SECOND) >> 1) & 0xffffffffL;
+    }
+
+    private void writeByte(int v) throws IOException {
+        out.write(v & 0xff);
+        written += 1;
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+        written += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+        out.write((int)(v & 0xff));
+        out.write((int)((v >>> 8) & 0xff));
+        out.write((int)((v >>> 16) & 0xff));
+        out.write((int)((v >>> 24) & 0xff));
+        written += 4;
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v);
+        writeInt(v >>> 32);
+    }
+
+    private void writeBytes(byte[] b) throws IOException {
+        out.write(b, 0, b.length);
+        written += b.length;
+    }
+
+    // an entry held back, with its data in memory or, from offset on, in the spill file
+    private static class Held {
+        CompressedEntry entry;
+        int length;
+        long offset = -1;
+    }
+
+    private static class Record {
+        byte[] name;
+        long dostime;
+        Long mtime;
+        boolean jarMagic;
+        long crc;
+        long size;
+        long csize;
+        long offset;
+    }
+}
@@ -0,0 +1,22 @@
+package com.eed3si9n.jarjar.util;
+
+/**
+ * What a {@link JarProcessor} can tell about an entry from its name alone, before the entry's data
+ * is read.
+ */
+public enum NameDecision
+{
+    /**
+     * The processor would throw the entry away, whatever its data.
+     */
+    DROP,
+    /**
+     * The processor would keep the entry as it is and do nothing else with it, so the decision is
+     * up to whatever comes after it.
+     */
+    PASS,
+    /**
+     * The processor has to see the entry's data.
+     */
+    PROCESS
+}
@@ -18,55 +18,252 @@ package com.eed3si9n.jarjar.util;
 
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 import java.util.Enumeration;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 public class StandaloneJarProcessor
 {
+    private static final Future<CompressedEntry> END = CompletableFuture.completedFuture(null);
+
     public static void run(File from, File to, JarProcessor proc) throws IOException {
-        byte[] buf = new byte[0x2000];
+        run(from, to, proc, 1);
+    }
 
-        JarFile in = new JarFile(from);
-        final File tmpTo = File.createTempFile("jarjar", ".jar");
-        BufferedOutputStream buffered = new BufferedOutputStream(new FileOutputStream(tmpTo));
-        JarOutputStream out = new JarOutputStream(buffered);
-        Set<String> entries = new HashSet<String>();
+    /**
+     * Returns the names of the entries of <code>file</code>, read from its central directory
+     * without inflating anything.
+     */
+    public static List<String> entryNames(File file) throws IOException {
+        JarFile in = new JarFile(file);
         try {
+            List<String> names = new ArrayList<String>();
             Enumeration<JarEntry> e = in.entries();
-            while (e.hasMoreElements()) {
-                EntryStruct struct = new EntryStruct();
-                JarEntry entry = e.nextElement();
-                struct.name = entry.getName();
-                struct.time = entry.getTime();
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                IoUtil.pipe(in.getInputStream(entry), baos, buf);
-                struct.data = baos.toByteArray();
-                if (proc.process(struct)) {
-                    if (entries.add(struct.name)) {
-                        entry = new JarEntry(struct.name);
-                        entry.setTime(struct.time);
-                        entry.setCompressedSize(-1);
-                        out.putNextEntry(entry);
-                        out.write(struct.data);
-                    } else if (struct.name.endsWith("/")) {
-                        // TODO(chrisn): log
-                    } else {
-                        throw new DuplicateJarEntryException(from.getAbsolutePath(), struct.name);
+            while (e.hasMoreElements())
+                names.add(e.nextElement().getName());
+            return names;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Runs <code>proc</code> over every entry of <code>from</code> and writes the kept entries to
+     * <code>to</code>.
+     * <p>
+     * With more than one thread, entries are read on a reader thread, transformed and compressed on
+     * a pool of <code>threads</code> workers, and written by the calling thread in their original
+     * order, so the output is byte-identical to the single-threaded run. In that mode
+     * <code>proc</code> is called concurrently and must be thread-safe.
+     * <p>
+     * Entries that {@link JarProcessor#processName} drops are skipped without reading their data.
+     *
+     * @param threads the number of worker threads; <code>1</code> processes everything on the
+     * calling thread
+     */
+    public static void run(File from, File to, JarProcessor proc, int threads) throws IOException {
+        JarFile in = new JarFile(from);
+        CompressedEntryReader raw = null;
+        JarWriter out = null;
+        File target = to;
+        boolean success = false;
+        try {
+            // the input is still being read while the output is written, so write in-place runs
+            // next to the jar and move the result over it afterwards
+            if (from.getCanonicalFile().equals(to.getCanonicalFile()))
+                target = File.createTempFile("jarjar", ".jar", to.getAbsoluteFile().getParentFile());
+            raw = new CompressedEntryReader(from);
+            out = new JarWriter(target, true);
+            Set<String> entries = new HashSet<String>();
+            if (threads > 1) {
+                runParallel(from, in, raw, out, entries, proc, threads);
+            } else {
+                byte[] buf = new byte[0x2000];
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                try {
+                    Enumeration<JarEntry> e = in.entries();
+                    while (e.hasMoreElements()) {
+                        JarEntry entry = e.nextElement();
+                        if (proc.processName(entry.getName()) == NameDecision.DROP)
+                            continue;
+                        EntryStruct struct = read(in, entry, buf);
+                        String name = struct.name;
+                        byte[] data = struct.data;
+                        if (proc.process(struct))
+                            write(from, out, entries, compress(struct, name, data, raw, deflater));
                     }
+                } finally {
+                    deflater.end();
                 }
             }
-
+            success = true;
         }
         finally {
             in.close();
-            out.close();
+            if (raw != null)
+                raw.close();
+            if (out != null)
+                out.close();
+            if (!success && (out != null || target != to))
+                target.delete();
+        }
+        if (target != to)
+            Files.move(target.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void runParallel(File from, final JarFile in, final CompressedEntryReader raw, JarWriter out,
+                                    Set<String> entries, final JarProcessor proc, int threads) throws IOException {
+        final BlockingQueue<Future<CompressedEntry>> pending =
+            new ArrayBlockingQueue<Future<CompressedEntry>>(threads * 8);
+        final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+        final ExecutorService workers = Executors.newFixedThreadPool(threads, daemonThreads("jarjar-worker"));
+        ExecutorService reader = Executors.newSingleThreadExecutor(daemonThreads("jarjar-reader"));
+        try {
+            reader.submit(new Callable<Void>() {
+                public Void call() throws InterruptedException {
+                    try {
+                        byte[] buf = new byte[0x2000];
+                        Enumeration<JarEntry> e = in.entries();
+                        while (e.hasMoreElements()) {
+                            JarEntry entry = e.nextElement();
+                            if (proc.processName(entry.getName()) == NameDecision.DROP)
+                                continue;
+                            final EntryStruct struct = read(in, entry, buf);
+                            final String name = struct.name;
+                            final byte[] data = struct.data;
+                            pending.put(CompletableFuture
+                                .supplyAsync(() -> transform(proc, struct), workers)
+                                .thenApplyAsync(s -> s == null ? null : compress(s, name, data, raw, deflaters), workers));
+                        }
+                    } catch (InterruptedException ex) {
+                        throw ex;
+                    } catch (Throwable ex) {
+                        // handed to the writer, which rethrows it where the serial run would have
+                        CompletableFuture<CompressedEntry> failed = new CompletableFuture<CompressedEntry>();
+                        failed.completeExceptionally(ex);
+                        pending.put(failed);
+                        return null;
+                    }
+                    pending.put(END);
+                    return null;
+                }
+            });
+            for (;;) {
+                Future<CompressedEntry> next = pending.take();
+                if (next == END)
+                    break;
+                CompressedEntry entry = get(next);
+                if (entry != null)
+                    write(from, out, entries, entry);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while processing " + from);
+        } finally {
+            shutdown(reader);
+            shutdown(workers);
+            for (Deflater deflater : deflaters)
+                deflater.end();
         }
+    }
 
-         // delete the empty directories
-        IoUtil.copyZipWithoutEmptyDirectories(tmpTo, to);
-        tmpTo.delete();
+    private static EntryStruct read(JarFile in, JarEntry entry, byte[] buf) throws IOException {
+        EntryStruct struct = new EntryStruct();
+        struct.name = entry.getName();
+        struct.time = entry.getTime();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        IoUtil.pipe(in.getInputStream(entry), baos, buf);
+        struct.data = baos.toByteArray();
+        return struct;
+    }
 
+    private static EntryStruct transform(JarProcessor proc, EntryStruct struct) {
+        try {
+            return proc.process(struct) ? struct : null;
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    /**
+     * Compresses the processed <code>struct</code>. If its data is still what was read from the
+     * entry called <code>name</code>, the stored compressed bytes are reused instead.
+     */
+    private static CompressedEntry compress(EntryStruct struct, String name, byte[] data,
+                                            CompressedEntryReader raw, Deflater deflater) throws IOException {
+        if (Arrays.equals(struct.data, data)) {
+            CompressedEntry entry = raw.read(name, struct.data, struct.time);
+            if (entry != null) {
+                entry.name = struct.name;
+                return entry;
+            }
+        }
+        return CompressedEntry.deflate(struct.name, struct.time, struct.data, deflater);
+    }
+
+    private static CompressedEntry compress(EntryStruct struct, String name, byte[] data,
+                                            CompressedEntryReader raw, Queue<Deflater> deflaters) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            return compress(struct, name, data, raw, deflater);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        } finally {
+            deflaters.add(deflater);
+        }
+    }
+
+    private static void write(File from, JarWriter out, Set<String> entries, CompressedEntry entry)
+        throws IOException {
+        if (entries.add(entry.name)) {
+            out.write(entry);
+        } else if (entry.name.endsWith("/")) {
+            // TODO(chrisn): log
+        } else {
+            throw new DuplicateJarEntryException(from.getAbsolutePath(), entry.name);
+        }
+    }
+
+    private static CompressedEntry get(Future<CompressedEntry> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeIOException)
+                cause = cause.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static void shutdown(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
     }
 }
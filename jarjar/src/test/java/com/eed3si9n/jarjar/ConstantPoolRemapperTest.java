@@ -0,0 +1,105 @@
+package com.eed3si9n.jarjar;
+
+import com.eed3si9n.jarjar.util.ClassTransform;
+import com.eed3si9n.jarjar.util.JarTransformerChain;
+import com.eed3si9n.jarjar.util.RemappingClassTransformer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import static com.eed3si9n.jarjar.MethodRewriterTest.readInputStream;
+
+public class ConstantPoolRemapperTest {
+    private static final String[][] RULES = {
+        { "com.google.**", "shaded.com.google.@1" },
+        { "org.apache.beam.**", "shaded.@1" },
+        { "java.util.**", "shaded.util.@1" },
+        { "com.abc.**", "com.def.@1" },
+        { "foo.**", "bar.@1" },
+        { "java.lang.**", "shaded.lang.@1" },
+    };
+
+    @Test
+    public void testSameAsAsm() throws IOException {
+        List<byte[]> classes = new ArrayList<byte[]>();
+        classes.add(readInputStream(getClass().getResourceAsStream("/Generics.class")));
+        JarInputStream in = new JarInputStream(getClass().getResourceAsStream("/enumtest.jar"));
+        try {
+            JarEntry entry;
+            while ((entry = in.getNextJarEntry()) != null) {
+                if (entry.getName().endsWith(".class"))
+                    classes.add(readInputStream(in));
+            }
+        } finally {
+            in.close();
+        }
+
+        for (String[] r : RULES) {
+            Rule rule = new Rule();
+            rule.setPattern(r[0]);
+            rule.setResult(r[1]);
+            for (byte[] data : classes) {
+                ClassReader reader = new ClassReader(data);
+                byte[] expected = asm(reader, new PackageRemapper(Arrays.asList(rule), false));
+                byte[] actual = ConstantPoolRemapper.remap(data, reader,
+                    new PackageRemapper(Arrays.asList(rule), false));
+                Assert.assertNotNull(reader.getClassName(), actual);
+                Assert.assertArrayEquals(reader.getClassName() + " with " + r[0],
+                    normalize(expected), normalize(actual));
+            }
+        }
+    }
+
+    @Test
+    public void testMethodSignatureLeftToAsm() throws IOException {
+        // calls getImplMethodSignature, whose string argument only MethodSignatureProcessor rewrites
+        byte[] data = readInputStream(
+            getClass().getResourceAsStream("/com/eed3si9n/jarjar/BigtableIO$Write.class"));
+        Rule rule = new Rule();
+        rule.setPattern("com.google.**");
+        rule.setResult("shaded.com.google.@1");
+        Assert.assertNull(ConstantPoolRemapper.remap(data, new ClassReader(data),
+            new PackageRemapper(Arrays.asList(rule), false)));
+    }
+
+    @Test
+    public void testUnchanged() throws IOException {
+        byte[] data = readInputStream(getClass().getResourceAsStream("/Generics.class"));
+        Rule rule = new Rule();
+        rule.setPattern("com.abc.**");
+        rule.setResult("com.def.@1");
+        Assert.assertSame(data, ConstantPoolRemapper.remap(data, new ClassReader(data),
+            new PackageRemapper(Arrays.asList(rule), false)));
+    }
+
+    private static byte[] asm(ClassReader reader, TracingRemapper remapper) {
+        ClassTransform[] transforms = {
+            new JarTransformerChain(new RemappingClassTransformer[] {
+                new RemappingClassTransformer()
+            }, remapper),
+            new MethodSignatureProcessor(remapper)
+        };
+        ClassWriter w = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor cv = w;
+        for (int i = transforms.length - 1; i >= 0; i--)
+            cv = transforms[i].transform(cv, remapper);
+        reader.accept(cv, ClassReader.EXPAND_FRAMES);
+        return w.toByteArray();
+    }
+
+    // written afresh, so that the constant pool order, frame encoding and maxs are ASM's for both
+    private static byte[] normalize(byte[] data) {
+        ClassWriter w = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        new ClassReader(data).accept(w, ClassReader.EXPAND_FRAMES);
+        return w.toByteArray();
+    }
+}
@@ -0,0 +1,61 @@
+package com.eed3si9n.jarjar;
+
+import com.eed3si9n.jarjar.misplaced.MisplacedClassProcessor;
+import com.eed3si9n.jarjar.misplaced.MisplacedClassProcessorFactory;
+import com.eed3si9n.jarjar.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.eed3si9n.jarjar.MethodRewriterTest.readInputStream;
+
+public class FusedClassProcessorTest {
+    private static final String BIGTABLE = "/com/eed3si9n/jarjar/BigtableIO$Write.class";
+    private static final String BIGTABLE_ENTRY = "org/apache/beam/sdk/io/gcp/bigtable/BigtableIO$Write.class";
+
+    @Test
+    public void testMatchesChain() throws IOException {
+        assertSameAsChain("com.google.**", "shaded.com.google.@1", BIGTABLE_ENTRY, BIGTABLE);
+        assertSameAsChain("com.google.**", "shaded.com.google.@1",
+            MisplacedClassProcessor.VERSIONED_CLASS_FOLDER + "9/" + BIGTABLE_ENTRY, BIGTABLE);
+        assertSameAsChain("org.apache.beam.**", "shaded.@1", BIGTABLE_ENTRY, BIGTABLE);
+        assertSameAsChain("com.abc.**", "com.def.@1", BIGTABLE_ENTRY, BIGTABLE);
+        assertSameAsChain("java.util.**", "shaded.util.@1", "Generics.class", "/Generics.class");
+        // misplaced, so it is left to the chain
+        assertSameAsChain("com.google.**", "shaded.com.google.@1", "BigtableIO$Write.class", BIGTABLE);
+    }
+
+    private void assertSameAsChain(String pattern, String result, String name, String resource)
+        throws IOException {
+        Rule rule = new Rule();
+        rule.setPattern(pattern);
+        rule.setResult(result);
+        PackageRemapper pr = new PackageRemapper(Arrays.asList(rule), false);
+        ZapProcessor zap = new ZapProcessor(Collections.<Zap>emptyList());
+        JarTransformerChain transformer = new JarTransformerChain(new RemappingClassTransformer[] {
+            new RemappingClassTransformer()
+        }, pr);
+        MethodSignatureProcessor methodSignatureProcessor = new MethodSignatureProcessor(pr);
+        JarProcessorChain chain = new JarProcessorChain(new JarProcessor[] {
+            zap,
+            MisplacedClassProcessorFactory.getInstance().getProcessorForName("move"),
+            transformer,
+            methodSignatureProcessor,
+            new ResourceProcessor(pr)
+        });
+        FusedClassProcessor fused = new FusedClassProcessor(chain, null, zap, pr,
+            new ClassTransform[] { transformer, methodSignatureProcessor });
+
+        EntryStruct expected = new EntryStruct();
+        expected.name = name;
+        expected.data = readInputStream(getClass().getResourceAsStream(resource));
+        EntryStruct actual = expected.copy();
+
+        Assert.assertEquals(chain.process(expected), fused.process(actual));
+        Assert.assertEquals(expected.name, actual.name);
+        Assert.assertArrayEquals(expected.data, actual.data);
+    }
+}
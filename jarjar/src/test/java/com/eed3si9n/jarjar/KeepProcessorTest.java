@@ -1,10 +1,18 @@
 package com.eed3si9n.jarjar;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 import com.eed3si9n.jarjar.util.EntryStruct;
+import com.eed3si9n.jarjar.util.NameDecision;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -37,4 +45,94 @@ public class KeepProcessorTest
         entryStruct.name = "META-INF/versions/8/com/example/Object.class";
         assertFalse(keepProcessor.process(entryStruct));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAnalyze() throws IOException {
+        Keep keep = new Keep();
+        keep.setPattern("org.example.Root");
+        KeepProcessor keepProcessor = new KeepProcessor(Collections.singletonList(keep));
+
+        File jar = File.createTempFile("keep", ".jar");
+        try {
+            try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+                writeClass(out, "org/example/Root", "org/example/Base");
+                writeClass(out, "org/example/Base", "java/lang/Object");
+                writeClass(out, "org/example/Unused", "org/example/Base");
+            }
+            keepProcessor.analyze(jar);
+        } finally {
+            jar.delete();
+        }
+
+        assertEquals(NameDecision.PASS, keepProcessor.processName("org/example/Root.class"));
+        assertEquals(NameDecision.PASS, keepProcessor.processName("org/example/Base.class"));
+        assertEquals(NameDecision.DROP, keepProcessor.processName("org/example/Unused.class"));
+        assertEquals(NameDecision.PASS, keepProcessor.processName("org/example/file.txt"));
+        assertTrue(keepProcessor.getExcludes().isEmpty());
+
+        EntryStruct entryStruct = new EntryStruct();
+        entryStruct.name = "org/example/Base.class";
+        assertTrue(keepProcessor.process(entryStruct));
+    }
+
+    @Test
+    public void testExcludes() throws IOException {
+        Keep keep = new Keep();
+        keep.setPattern("org.example.Root");
+        KeepProcessor keepProcessor = new KeepProcessor(Collections.singletonList(keep));
+
+        // a chain of 10000 classes, each extending the next
+        EntryStruct entryStruct = new EntryStruct();
+        entryStruct.name = "org/example/Root.class";
+        entryStruct.data = classBytes("org/example/Root", "org/example/C0");
+        keepProcessor.process(entryStruct);
+        for (int i = 0; i < 10000; i++) {
+            entryStruct.name = "org/example/C" + i + ".class";
+            entryStruct.data = classBytes("org/example/C" + i, "org/example/C" + (i + 1));
+            keepProcessor.process(entryStruct);
+        }
+        entryStruct.name = "org/example/Unused.class";
+        entryStruct.data = classBytes("org/example/Unused", "org/example/C0");
+        keepProcessor.process(entryStruct);
+
+        assertEquals(Collections.singleton("org/example/Unused"), keepProcessor.getExcludes());
+    }
+
+    @Test
+    public void testDependenciesReplaced() throws IOException {
+        Keep keep = new Keep();
+        keep.setPattern("org.example.Root");
+        KeepProcessor keepProcessor = new KeepProcessor(Collections.singletonList(keep));
+
+        // Root is read twice, the second time depending on B instead of A
+        EntryStruct entryStruct = new EntryStruct();
+        entryStruct.name = "org/example/Root.class";
+        entryStruct.data = classBytes("org/example/Root", "org/example/A");
+        keepProcessor.process(entryStruct);
+        entryStruct.name = "org/example/A.class";
+        entryStruct.data = classBytes("org/example/A", "java/lang/Object");
+        keepProcessor.process(entryStruct);
+        entryStruct.name = "org/example/Root.class";
+        entryStruct.data = classBytes("org/example/Root", "org/example/B");
+        keepProcessor.process(entryStruct);
+        entryStruct.name = "org/example/B.class";
+        entryStruct.data = classBytes("org/example/B", "java/lang/Object");
+        keepProcessor.process(entryStruct);
+
+        assertEquals(Collections.singleton("org/example/A"), keepProcessor.getExcludes());
+    }
+
+    private static void writeClass(JarOutputStream out, String name, String superName)
+            throws IOException {
+        out.putNextEntry(new JarEntry(name + ".class"));
+        out.write(classBytes(name, superName));
+        out.closeEntry();
+    }
+
+    private static byte[] classBytes(String name, String superName) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
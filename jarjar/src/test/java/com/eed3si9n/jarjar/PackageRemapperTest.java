@@ -19,6 +19,9 @@ package com.eed3si9n.jarjar;
 import java.util.Collections;
 
 import org.junit.Before;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 import org.junit.Test;
 
 import junit.framework.TestCase;
@@ -61,6 +64,61 @@ extends TestCase
       assertEquals("foo/example.package-info", remapper.mapValue("org/example.package-info"));
     }
 
+    @Test
+    public void testMapValueOfUnrelatedString() {
+        String message = "Unable to read the organization";
+        TracingRemapper copy = remapper.copy();
+        assertSame(message, copy.mapValue(message));
+        assertFalse(copy.hasChanges());
+        assertEquals("foo.example.Object", copy.mapValue("org.example.Object"));
+        assertTrue(copy.hasChanges());
+    }
+
+    @Test
+    public void testCopyTracksChangesOnCachedNames() {
+        remapper.map("org/example/Object");
+        remapper.mapValue("org.example.Object");
+        remapper.mapValue("java.lang.Object");
+
+        TracingRemapper unchanged = remapper.copy();
+        assertNull(unchanged.map("java/lang/Object"));
+        assertEquals("java.lang.Object", unchanged.mapValue("java.lang.Object"));
+        assertFalse(unchanged.hasChanges());
+
+        TracingRemapper type = remapper.copy();
+        assertEquals("foo/example/Object", type.map("org/example/Object"));
+        assertTrue(type.hasChanges());
+
+        TracingRemapper value = remapper.copy();
+        assertEquals("foo.example.Object", value.mapValue("org.example.Object"));
+        assertTrue(value.hasChanges());
+    }
+
+    @Test
+    public void testMayChange() {
+        assertFalse(remapper.mayChange(classReader("com/example/Object", "java/lang/Object", "text")));
+        assertTrue(remapper.mayChange(classReader("com/example/Object", "org/example/Base", "text")));
+        assertTrue(remapper.mayChange(classReader("com/example/Object", "java/lang/Object", "org.example.Foo")));
+        assertTrue(remapper.mayChange(classReader("com/example/Object", "java/lang/Object", "org/file.txt")));
+        assertFalse(remapper.mayChange(classReader("com/example/Object", "java/lang/Object", "org\u00e9")));
+        assertTrue(remapper.mayChange(classReader("com/example/Object", "java/lang/Object", "\u00e9org/")));
+
+        Rule rule = new Rule();
+        rule.setPattern("*.Foo");
+        rule.setResult("bar.@1");
+        PackageRemapper anywhere = new PackageRemapper(Collections.singletonList(rule), false);
+        assertTrue(anywhere.mayChange(classReader("com/example/Object", "java/lang/Object", "text")));
+    }
+
+    private static ClassReader classReader(String name, String superName, String constant) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "f", "J", null, 1L).visitEnd();
+        cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "s", "Ljava/lang/String;", null, constant).visitEnd();
+        cw.visitEnd();
+        return new ClassReader(cw.toByteArray());
+    }
+
     @Test
     public void testUnchangedInnerClassNames() {
         String outer = "scala.collection.immutable.IntMap";
@@ -0,0 +1,37 @@
+package com.eed3si9n.jarjar;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class PatternElementTest
+extends TestCase
+{
+    @Test
+    public void testRelevantPatterns() throws Exception {
+        List<PatternElement> patterns = RulesFileParser.parse(
+            "rule org.other.** shaded.@1\n" +
+            "zap org.example.internal.**\n" +
+            "zap org.other.**\n" +
+            "zap org.example.*\n" +
+            "keep org.example.Main\n" +
+            "keep org.other.Main\n");
+        List<String> entries = Arrays.asList(
+            "META-INF/MANIFEST.MF",
+            "org/example/Main.class",
+            "org/example/internal/Util.class",
+            "org/example/data.txt");
+
+        List<PatternElement> relevant = PatternElement.relevantPatterns(patterns, entries);
+        assertEquals(Arrays.asList(patterns.get(0), patterns.get(1), patterns.get(3), patterns.get(4)),
+            relevant);
+
+        // keep patterns without a root in the jar still drop every class, so they stay
+        List<PatternElement> noRoots = PatternElement.relevantPatterns(
+            patterns.subList(5, 6), entries);
+        assertEquals(patterns.subList(5, 6), noRoots);
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -71,4 +72,61 @@ public class ResourceProcessorTest {
         assertEquals(entryStruct2.name, "another_org/example/file.txt");
         assertArrayEquals(entryStruct.data, new byte[]{0x10});
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testResourceContent() throws IOException {
+        String rules = "rule org.example.** something.shaded.@0";
+        List<Rule> parsed = (List<Rule>)(List<?>) RulesFileParser.parse(rules);
+        ResourceProcessor content = new ResourceProcessor(new PackageRemapper(parsed, false),
+            Arrays.asList("META-INF/spring.factories", "**/*.properties", "**.xml"));
+
+        assertContent(content, "META-INF/spring.factories",
+            "org.example.Config=\\\norg.example.A,\\\n org.other.B\n",
+            "something.shaded.org.example.Config=\\\nsomething.shaded.org.example.A,\\\n org.other.B\n");
+        assertContent(content, "conf/app.properties",
+            "# org.example.Foo, not org.examples.Foo\nfile=org/example/app.xml\nmyorg.example.Foo=\u00e9\n",
+            "# something.shaded.org.example.Foo, not org.examples.Foo\n"
+                + "file=something/shaded/org/example/app.xml\nmyorg.example.Foo=\u00e9\n");
+        assertContent(content, "beans.xml",
+            "<bean class=\"org.example.Foo\"/><!--org.example.Bar-->",
+            "<bean class=\"something.shaded.org.example.Foo\"/><!--something.shaded.org.example.Bar-->");
+        assertContent(content, "README.txt", "org.example.Foo", "org.example.Foo");
+
+        EntryStruct untouched = new EntryStruct();
+        untouched.name = "app.properties";
+        untouched.data = "key=value".getBytes(StandardCharsets.UTF_8);
+        byte[] data = untouched.data;
+        assertTrue(content.process(untouched));
+        assertSame(data, untouched.data);
+    }
+
+    @Test
+    public void testLatin1ResourceContent() throws IOException {
+        String rules = "rule org.example.** something.shaded.@0";
+        List<Rule> parsed = (List<Rule>)(List<?>) RulesFileParser.parse(rules);
+        ResourceProcessor content = new ResourceProcessor(new PackageRemapper(parsed, false),
+            Arrays.asList("**.properties"));
+
+        EntryStruct entryStruct = new EntryStruct();
+        entryStruct.name = "app.properties";
+        entryStruct.data = "caf\u00e9=\u00e9org.example.Foo\u00e9\nk\u00e9y=org.example.Bar\n"
+            .getBytes(StandardCharsets.ISO_8859_1);
+        assertTrue(content.process(entryStruct));
+        assertEquals("caf\u00e9=\u00e9something.shaded.org.example.Foo\u00e9\n"
+                + "k\u00e9y=something.shaded.org.example.Bar\n",
+            new String(entryStruct.data, StandardCharsets.ISO_8859_1));
+
+        // a UTF-8 identifier character is still part of the name
+        assertContent(content, "utf8.properties", "x=org.example.Caf\u00e9\n",
+            "x=something.shaded.org.example.Caf\u00e9\n");
+    }
+
+    private static void assertContent(ResourceProcessor processor, String name, String original,
+                                      String expected) throws IOException {
+        EntryStruct entryStruct = new EntryStruct();
+        entryStruct.name = name;
+        entryStruct.data = original.getBytes(StandardCharsets.UTF_8);
+        assertTrue(processor.process(entryStruct));
+        assertEquals(expected, new String(entryStruct.data, StandardCharsets.UTF_8));
+    }
+}
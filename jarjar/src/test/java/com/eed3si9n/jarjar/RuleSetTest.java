@@ -0,0 +1,82 @@
+package com.eed3si9n.jarjar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class RuleSetTest
+extends TestCase
+{
+    private static final String RULES =
+        "rule org.example.** shaded.@1\n" +
+        "zap org.example.internal.**\n" +
+        "keep org.example.Main\n";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        RuleSet rules = new RuleSet(RulesFileParser.parse(RULES));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        rules.writeTo(out);
+
+        RuleSet read = RuleSet.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(rules.toString(), read.toString());
+        assertEquals(rules.getFingerprint(), read.getFingerprint());
+        assertEquals("[rule org.example.** shaded.@1]", read.getRules().toString());
+        assertEquals("[zap org.example.internal.**]", read.getZaps().toString());
+        assertEquals("[keep org.example.Main]", read.getKeeps().toString());
+
+        File file = File.createTempFile("rules", ".bin");
+        OutputStream fileOut = new FileOutputStream(file);
+        try {
+            rules.writeTo(fileOut);
+        } finally {
+            fileOut.close();
+        }
+        assertEquals(rules.getFingerprint(), RuleSet.load(file).getFingerprint());
+    }
+
+    @Test
+    public void testResourceGlobs() throws Exception {
+        RuleSet rules = new RuleSet(RulesFileParser.parse(RULES), Arrays.asList("**.properties"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        rules.writeTo(out);
+
+        RuleSet read = RuleSet.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Arrays.asList("**.properties"), read.getResourceGlobs());
+        assertEquals(rules.getFingerprint(), read.getFingerprint());
+        assertFalse(rules.getFingerprint().equals(new RuleSet(RulesFileParser.parse(RULES)).getFingerprint()));
+        assertEquals(Arrays.asList("**.properties"),
+            rules.relevantTo(Arrays.asList("org/example/Main.class")).getResourceGlobs());
+    }
+
+    @Test
+    public void testFingerprint() throws Exception {
+        List<PatternElement> patterns = RulesFileParser.parse(RULES);
+        RuleSet rules = new RuleSet(patterns);
+        assertEquals(rules.getFingerprint(), new RuleSet(RulesFileParser.parse(RULES)).getFingerprint());
+
+        // the patterns are copied in
+        ((Rule) patterns.get(0)).setResult("other.@1");
+        assertEquals("shaded.@1", rules.getRules().get(0).getResult());
+        assertFalse(rules.getFingerprint().equals(new RuleSet(patterns).getFingerprint()));
+    }
+
+    @Test
+    public void testRelevantTo() throws Exception {
+        RuleSet rules = new RuleSet(RulesFileParser.parse(RULES));
+        assertSame(rules, rules.relevantTo(Arrays.asList(
+            "org/example/Main.class", "org/example/internal/Util.class")));
+
+        RuleSet relevant = rules.relevantTo(Arrays.asList("org/example/Main.class"));
+        assertEquals("[rule org.example.** shaded.@1, keep org.example.Main]", relevant.toString());
+        assertSame(rules.getRuleMatcher(), relevant.getRuleMatcher());
+    }
+}
@@ -0,0 +1,38 @@
+package com.eed3si9n.jarjar;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class SubstringMatcherTest
+extends TestCase
+{
+    @Test
+    public void testSameAsContains() {
+        List<String> literals = Arrays.asList("abab", "bab", "ba", "aac", "cab.c");
+        SubstringMatcher matcher = new SubstringMatcher(literals);
+        Random random = new Random(0);
+        for (int n = 0; n < 10000; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = random.nextInt(12); i > 0; i--)
+                sb.append("abc.".charAt(random.nextInt(4)));
+            String text = sb.toString();
+            boolean expect = false;
+            for (String literal : literals)
+                expect |= text.contains(literal);
+            assertEquals(text, expect, matcher.find(text));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        assertFalse(new SubstringMatcher(Collections.<String>emptyList()).find("abc"));
+        assertTrue(new SubstringMatcher(Arrays.asList("x", "")).find("abc"));
+        assertTrue(new SubstringMatcher(Arrays.asList("x", "")).isMatch(0));
+    }
+}
@@ -0,0 +1,90 @@
+package com.eed3si9n.jarjar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class WildcardMatcherTest
+extends TestCase
+{
+    private static final String[][] RULES = {
+        { "net/sf/cglib/proxy/*", "proxy/@1" },
+        { "net/sf/cglib/**", "foo/@1" },
+        { "net/sf/cglib/*/*", "foo/@2/@1" },
+        { "net/sf/**", "sf/@0" },
+        { "com/*/impl/**", "impl/@1/@2" },
+        { "com/example/Foo", "bar/Foo" },
+        { "com/example/Foo$Bar", "bar/FooBar" },
+        { "com/example/Foo*", "bar/@1" },
+        { "org/**/Test", "test/@1" },
+        { "META-INF/versions/9/net/sf/cglib/*/*", "foo/@2/@1" },
+    };
+
+    private static final String[] VALUES = {
+        "net/sf/cglib/proxy/Mixin$Generator",
+        "net/sf/cglib/proxy/Mixin/Generator",
+        "net/sf/cglib/Bar",
+        "net/sf/cglib/Bar/Baz",
+        "net/sf/cglib/",
+        "net/sf/cglib/!",
+        "net/sf/cglib",
+        "net/sf/Other",
+        "net/sf/",
+        "com/acme/impl/Thing",
+        "com/acme/impl/",
+        "com/acme/api/Thing",
+        "com/example/Foo",
+        "com/example/Foo$Bar",
+        "com/example/FooBar",
+        "com/example/Foo/Bar",
+        "org/a/b/Test",
+        "org/Test",
+        "org/a/b/Tests",
+        "META-INF/versions/9/net/sf/cglib/Bar/Baz",
+        "java/lang/Object",
+        "net/sf/cglib/a\u0085b",
+        "",
+    };
+
+    @Test
+    public void testSameAsLinearScan() {
+        List<Wildcard> wildcards = new ArrayList<Wildcard>();
+        for (String[] rule : RULES)
+            wildcards.add(new Wildcard(rule[0], rule[1]));
+        WildcardMatcher matcher = new WildcardMatcher(wildcards);
+        for (String value : VALUES) {
+            String expect = null;
+            for (Wildcard wildcard : wildcards) {
+                expect = wildcard.replace(value);
+                if (expect != null)
+                    break;
+            }
+            assertEquals(value, expect, matcher.replace(value));
+            assertEquals(value, expect != null, matcher.matches(value));
+
+            BitSet expected = new BitSet();
+            for (int i = 0; i < wildcards.size(); i++) {
+                if (wildcards.get(i).replace(value) != null)
+                    expected.set(i);
+            }
+            BitSet matched = new BitSet();
+            matcher.collectMatches(value, matched);
+            assertEquals(value, expected, matched);
+        }
+    }
+
+    @Test
+    public void testFirstMatchWins() {
+        WildcardMatcher matcher = new WildcardMatcher(Arrays.asList(
+            new Wildcard("org/**", "a/@1"),
+            new Wildcard("org/example/**", "b/@1")));
+        assertEquals("a/example/Foo", matcher.replace("org/example/Foo"));
+        assertNull(matcher.replace("com/example/Foo"));
+        assertTrue(new WildcardMatcher(new ArrayList<Wildcard>()).isEmpty());
+    }
+}
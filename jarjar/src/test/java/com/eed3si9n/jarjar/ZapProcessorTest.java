@@ -1,7 +1,9 @@
 package com.eed3si9n.jarjar;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import org.junit.Test;
 import com.eed3si9n.jarjar.util.EntryStruct;
 
@@ -43,4 +45,34 @@ public class ZapProcessorTest
     entryStruct.name = "META-INF/versions/8/com/example/Object.class";
     assertTrue(zapProcessor.process(entryStruct));
   }
+
+  @Test
+  public void testManyZaps() throws IOException {
+    List<Zap> zaps = new ArrayList<Zap>();
+    for (int i = 0; i < 1000; i++) {
+      Zap zap = new Zap();
+      zap.setPattern("org.generated" + i + ".**");
+      zaps.add(zap);
+    }
+    Zap zap = new Zap();
+    zap.setPattern("com.*.internal.*");
+    zaps.add(zap);
+    ZapProcessor zapProcessor = new ZapProcessor(zaps);
+
+    EntryStruct entryStruct = new EntryStruct();
+    entryStruct.name = "org/generated999/Object.class";
+    assertFalse(zapProcessor.process(entryStruct));
+
+    entryStruct.name = "org/generated1000/Object.class";
+    assertTrue(zapProcessor.process(entryStruct));
+
+    entryStruct.name = "org/generated42/sub/file.txt";
+    assertFalse(zapProcessor.process(entryStruct));
+
+    entryStruct.name = "com/example/internal/Object.class";
+    assertFalse(zapProcessor.process(entryStruct));
+
+    entryStruct.name = "com/example/internal/sub/Object.class";
+    assertTrue(zapProcessor.process(entryStruct));
+  }
 }
@@ -0,0 +1,95 @@
+package com.eed3si9n.jarjar.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+public class CachingJarProcessorTest {
+    private static class Renamer implements JarProcessor {
+        int processed;
+
+        public boolean process(EntryStruct struct) {
+            processed++;
+            if (struct.name.startsWith("drop/"))
+                return false;
+            if (struct.name.startsWith("org/")) {
+                struct.name = "shaded/" + struct.name;
+                struct.data = "shaded".getBytes(StandardCharsets.UTF_8);
+            }
+            return true;
+        }
+    }
+
+    @Test
+    public void testHit() throws IOException {
+        EntryCache cache = new EntryCache(Files.createTempDirectory("cache"), 1 << 20);
+        Renamer renamer = new Renamer();
+        for (int run = 0; run < 2; run++) {
+            JarProcessor proc = new CachingJarProcessor(renamer, cache, "rules");
+            EntryStruct renamed = entry("org/a.txt", "a");
+            Assert.assertTrue(proc.process(renamed));
+            Assert.assertEquals("shaded/org/a.txt", renamed.name);
+            Assert.assertEquals("shaded", new String(renamed.data, StandardCharsets.UTF_8));
+
+            EntryStruct unchanged = entry("b.txt", "b");
+            byte[] data = unchanged.data;
+            Assert.assertTrue(proc.process(unchanged));
+            Assert.assertEquals("b.txt", unchanged.name);
+            Assert.assertSame(data, unchanged.data);
+
+            Assert.assertFalse(proc.process(entry("drop/c.txt", "c")));
+        }
+        Assert.assertEquals(3, renamer.processed);
+
+        // other rules, or other data under the same name, miss
+        new CachingJarProcessor(renamer, cache, "other rules").process(entry("org/a.txt", "a"));
+        new CachingJarProcessor(renamer, cache, "rules").process(entry("org/a.txt", "A"));
+        Assert.assertEquals(5, renamer.processed);
+    }
+
+    @Test
+    public void testBuildOf() {
+        String build = EntryCache.buildOf(EntryCache.class);
+        Assert.assertEquals(64, build.length());
+        Assert.assertEquals(build, EntryCache.buildOf(CachingJarProcessor.class));
+        // classes of the JDK have no code source to hash
+        Assert.assertEquals("", EntryCache.buildOf(String.class));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        EntryCache cache = new EntryCache(dir, 250);
+        cache.put("aa01", new byte[100]);
+        cache.put("bb02", new byte[100]);
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Iterator<Path> it = files.iterator(); it.hasNext();) {
+                Path file = it.next();
+                if (Files.isRegularFile(file))
+                    Files.setLastModifiedTime(file, FileTime.fromMillis(946684800000L));
+            }
+        }
+        Assert.assertNotNull(cache.get("aa01"));
+
+        cache.put("cc03", new byte[100]);
+
+        Assert.assertNotNull(cache.get("aa01"));
+        Assert.assertNull(cache.get("bb02"));
+        Assert.assertNotNull(cache.get("cc03"));
+    }
+
+    private static EntryStruct entry(String name, String data) {
+        EntryStruct struct = new EntryStruct();
+        struct.name = name;
+        struct.data = data.getBytes(StandardCharsets.UTF_8);
+        struct.time = 0;
+        return struct;
+    }
+}
@@ -0,0 +1,61 @@
+package com.eed3si9n.jarjar.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.Deflater;
+
+public class JarWriterTest {
+    private static final String[] NAMES = {
+        "META-INF/", "META-INF/maven/", "a/", "a/a.txt", "b/", "b/c/", "a/b.txt", "b/c/d.txt", "e/"
+    };
+
+    @Test
+    public void testSpilledEntriesMatchHeldInMemory() throws IOException {
+        byte[] inMemory = write(Long.MAX_VALUE);
+        byte[] spilled = write(0);
+        Assert.assertArrayEquals(inMemory, spilled);
+
+        File jar = File.createTempFile("output", ".jar");
+        Files.write(jar.toPath(), spilled);
+        List<String> names = new ArrayList<String>();
+        try (JarFile in = new JarFile(jar)) {
+            for (JarEntry entry : Collections.list(in.entries()))
+                names.add(entry.getName());
+            Assert.assertArrayEquals("b/c/d.txt".getBytes(StandardCharsets.UTF_8),
+                readAll(in, "b/c/d.txt"));
+        }
+        Assert.assertEquals(Arrays.asList("a/", "a/a.txt", "b/", "b/c/", "a/b.txt", "b/c/d.txt"), names);
+    }
+
+    private static byte[] write(long holdInMemory) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (JarWriter out = new JarWriter(bytes, true, holdInMemory)) {
+            for (String name : NAMES) {
+                byte[] data = name.endsWith("/") ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+                out.write(CompressedEntry.deflate(name, 946684800000L, data, deflater));
+            }
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readAll(JarFile jar, String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IoUtil.pipe(jar.getInputStream(jar.getEntry(name)), out, new byte[0x2000]);
+        return out.toByteArray();
+    }
+}
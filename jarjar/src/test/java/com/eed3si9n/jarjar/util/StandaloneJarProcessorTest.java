@@ -0,0 +1,178 @@
+package com.eed3si9n.jarjar.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
+
+public class StandaloneJarProcessorTest {
+    private static final JarProcessor RENAMER = new JarProcessor() {
+        public boolean process(EntryStruct struct) {
+            if (struct.name.startsWith("drop/"))
+                return false;
+            if (struct.name.startsWith("org/"))
+                struct.name = "shaded/" + struct.name;
+            return true;
+        }
+    };
+
+    @Test
+    public void testParallelMatchesSerial() throws IOException {
+        File input = createJar("a/", "a/a.txt", "org/", "org/example/", "org/example/Object.class",
+            "drop/", "drop/b.txt", "c/", "c/d/");
+        File serial = File.createTempFile("serial", ".jar");
+        File parallel = File.createTempFile("parallel", ".jar");
+
+        StandaloneJarProcessor.run(input, serial, RENAMER, 1);
+        StandaloneJarProcessor.run(input, parallel, RENAMER, 4);
+
+        Assert.assertArrayEquals(Files.readAllBytes(serial.toPath()), Files.readAllBytes(parallel.toPath()));
+    }
+
+    @Test
+    public void testParallelDuplicateEntry() throws IOException {
+        File input = createJar("org/x.txt", "shaded/org/x.txt");
+        File output = File.createTempFile("output", ".jar");
+        try {
+            StandaloneJarProcessor.run(input, output, RENAMER, 4);
+            Assert.fail("expected DuplicateJarEntryException");
+        } catch (DuplicateJarEntryException e) {
+            Assert.assertTrue(e.getMessage().contains("shaded/org/x.txt"));
+        }
+    }
+
+    @Test
+    public void testInPlaceRemovesEmptyDirectories() throws IOException {
+        File jar = createJar("a/", "a/a.txt", "c/", "c/d/", "drop/", "drop/b.txt", "org/", "org/example/",
+            "org/example/Object.class");
+
+        StandaloneJarProcessor.run(jar, jar, RENAMER);
+
+        List<String> names = new ArrayList<String>();
+        try (JarFile in = new JarFile(jar)) {
+            for (JarEntry entry : Collections.list(in.entries()))
+                names.add(entry.getName());
+        }
+        Assert.assertEquals(Arrays.asList("a/", "a/a.txt", "shaded/org/", "shaded/org/example/",
+            "shaded/org/example/Object.class"), names);
+    }
+
+    @Test
+    public void testUnchangedDataIsCopiedCompressed() throws IOException {
+        byte[] text = new byte[0x4000];
+        for (int i = 0; i < text.length; i++)
+            text[i] = (byte) ('a' + (i * 7 + i / 13) % 26);
+        File input = File.createTempFile("input", ".jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(input))) {
+            // a level the writer never uses, so copied and recompressed data look different
+            out.setLevel(Deflater.BEST_SPEED);
+            for (String name : new String[] { "org/kept.txt", "changed.txt" }) {
+                out.putNextEntry(new JarEntry(name));
+                out.write(text);
+                out.closeEntry();
+            }
+        }
+        File output = File.createTempFile("output", ".jar");
+
+        StandaloneJarProcessor.run(input, output, new JarProcessor() {
+            public boolean process(EntryStruct struct) throws IOException {
+                if (struct.name.equals("changed.txt")) {
+                    struct.data = struct.data.clone();
+                    struct.data[0] = 'A';
+                }
+                return RENAMER.process(struct);
+            }
+        });
+
+        try (JarFile in = new JarFile(input); JarFile out = new JarFile(output)) {
+            Assert.assertEquals(in.getEntry("org/kept.txt").getCompressedSize(),
+                out.getEntry("shaded/org/kept.txt").getCompressedSize());
+            Assert.assertNotEquals(in.getEntry("changed.txt").getCompressedSize(),
+                out.getEntry("changed.txt").getCompressedSize());
+            Assert.assertArrayEquals(text, readAll(out, "shaded/org/kept.txt"));
+            text[0] = 'A';
+            Assert.assertArrayEquals(text, readAll(out, "changed.txt"));
+        }
+    }
+
+    @Test
+    public void testEntriesDroppedByNameAreNotProcessed() throws IOException {
+        JarProcessor proc = new JarProcessor() {
+            public boolean process(EntryStruct struct) throws IOException {
+                Assert.assertFalse(struct.name, struct.name.startsWith("drop/"));
+                return RENAMER.process(struct);
+            }
+
+            public NameDecision processName(String name) {
+                return name.startsWith("drop/") ? NameDecision.DROP : NameDecision.PROCESS;
+            }
+        };
+        File input = createJar("a/", "a/a.txt", "drop/", "drop/b.txt", "org/", "org/example/",
+            "org/example/Object.class");
+        File expected = File.createTempFile("expected", ".jar");
+        File serial = File.createTempFile("serial", ".jar");
+        File parallel = File.createTempFile("parallel", ".jar");
+
+        StandaloneJarProcessor.run(input, expected, RENAMER, 1);
+        StandaloneJarProcessor.run(input, serial, proc, 1);
+        StandaloneJarProcessor.run(input, parallel, proc, 4);
+
+        Assert.assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(serial.toPath()));
+        Assert.assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(parallel.toPath()));
+    }
+
+    @Test(timeout = 60000)
+    public void testParallelProcessNameFailure() throws IOException {
+        JarProcessor proc = new JarProcessor() {
+            public boolean process(EntryStruct struct) throws IOException {
+                return RENAMER.process(struct);
+            }
+
+            public NameDecision processName(String name) {
+                if (name.startsWith("drop/"))
+                    throw new IllegalStateException("cannot decide on " + name);
+                return NameDecision.PROCESS;
+            }
+        };
+        File input = createJar("a/", "a/a.txt", "drop/", "drop/b.txt");
+        File output = File.createTempFile("output", ".jar");
+        try {
+            StandaloneJarProcessor.run(input, output, proc, 4);
+            Assert.fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("cannot decide on drop/", e.getMessage());
+        }
+    }
+
+    private static byte[] readAll(JarFile jar, String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IoUtil.pipe(jar.getInputStream(jar.getEntry(name)), out, new byte[0x2000]);
+        return out.toByteArray();
+    }
+
+    private static File createJar(String... names) throws IOException {
+        File jar = File.createTempFile("input", ".jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String name : names) {
+                out.putNextEntry(new JarEntry(name));
+                if (!name.endsWith("/"))
+                    out.write(name.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+}
@@ -30,6 +30,7 @@ public class JarJarMojo extends AbstractMojo
     private File rulesFile;
     private String rules;
     private boolean verbose;
+    private int threads = 1;
     
     public void execute() throws MojoExecutionException {
         if (!((rulesFile == null || !rulesFile.exists()) ^ (rules == null)))
@@ -42,10 +43,12 @@ public class JarJarMojo extends AbstractMojo
             } else {
                 patterns = RulesFileParser.parse(rulesFile);
             }
+            patterns = PatternElement.relevantPatterns(patterns,
+                StandaloneJarProcessor.entryNames(fromJar));
             // TODO: refactor with Main.java
             MainProcessor proc = new MainProcessor(patterns, verbose, true);
-            StandaloneJarProcessor.run(fromJar, toJar, proc);
-            proc.strip(toJar);
+            proc.analyze(fromJar);
+            StandaloneJarProcessor.run(fromJar, toJar, proc, threads);
         } catch (IOException e) {
             throw new MojoExecutionException(e.getMessage(), e);
         }
@@ -3,7 +3,7 @@ package sbtjarjarabrams
 
 import sbt._
 import Keys._
-import Defaults.{ packageTaskSettings, prefix }
+import Defaults.prefix
 import sbt.librarymanagement.ScalaModuleInfo
 import Path.relativeTo
 import scala.xml.{ Comment, Elem, Node => XmlNode }
@@ -76,6 +76,7 @@ object JarjarAbramsPlugin extends AutoPlugin {
       packageBin := jarjarPackageBin.value,
       jarjarPackageBin / target := crossTarget.value / (prefix(configuration.value.name) + "shaded"),
       jarjarPackageBin / logLevel := Level.Info,
+      // the shaded entries as files, for whatever wants mappings; jarjarPackageBin does not
       jarjarPackageBinMappings := {
         import sbt.util.CacheImplicits._
         val s = streams.value
@@ -85,27 +86,30 @@ object JarjarAbramsPlugin extends AutoPlugin {
         val rules = jarjarShadeRules.value
         val verbose = (jarjarPackageBin / logLevel).value == sbt.Level.Debug
         def doMapping: Seq[(File, String)] = {
-          IO.delete(dir)
-          IO.createDirectory(dir)
-          IO.unzip(input, dir)
-          val mappings = ((dir ** "*").get pair relativeTo(dir)) map {
-            case (k, v) => k.toPath -> v
-          }
-          Shader.shadeDirectory(rules, dir.toPath, mappings, verbose)
+          // only the entries added or changed since the last run are shaded again
+          Shader.shadeJarToDirectory(
+            rules,
+            input.toPath,
+            dir.toPath,
+            (s.cacheDirectory / "entries").toPath,
+            verbose,
+            skipManifest = true
+          )
           (dir ** "*").get pair relativeTo(dir)
         }
         val cachedMappings =
           Tracked
-            .inputChanged[HashFileInfo, Seq[(File, String)]](s.cacheStoreFactory.make("input")) {
-              (changed: Boolean, in: HashFileInfo) =>
-                prev match {
-                  case None => doMapping
-                  case Some(last) =>
-                    if (changed) doMapping
-                    else last
-                }
+            .inputChanged[(String, HashFileInfo), Seq[(File, String)]](
+              s.cacheStoreFactory.make("input")
+            ) { (changed: Boolean, in: (String, HashFileInfo)) =>
+              prev match {
+                case None => doMapping
+                case Some(last) =>
+                  if (changed) doMapping
+                  else last
+              }
             }
-        cachedMappings(FileInfo.hash(input))
+        cachedMappings((Shader.ruleSet(rules).getFingerprint, FileInfo.hash(input)))
       },
       jarjarInputJar := {
         val libDep = jarjarLibraryDependency.value
@@ -131,24 +135,71 @@ object JarjarAbramsPlugin extends AutoPlugin {
           attr.data != input
         }
       },
-    ) ++ packageTaskSettings(jarjarPackageBin, jarjarPackageBinMappings) ++ Seq(
       jarjarPackageBin / artifactPath := {
-        val original = (jarjarPackageBin / artifactPath).value
+        val original = (packageBin / artifactPath).value
         original.getParentFile / s"shaded-${original.getName}"
       },
       jarjarPackageBin := {
-        val config = (jarjarPackageBin / packageConfiguration).value
+        import sbt.util.CacheImplicits._
         val s = streams.value
-        Package(
-          config,
-          s.cacheStoreFactory,
-          s.log,
-          // sys.env.get("SOURCE_DATE_EPOCH").map(_.toLong * 1000).orElse(Some(0L))
-        )
-        config.jar
-      }
+        val input = jarjarInputJar.value
+        val output = (jarjarPackageBin / artifactPath).value
+        val rules = jarjarShadeRules.value
+        val verbose = (jarjarPackageBin / logLevel).value == sbt.Level.Debug
+        val manifest = packageManifest((packageBin / packageOptions).value)
+        val manifestText = {
+          val bytes = new java.io.ByteArrayOutputStream
+          manifest.write(bytes)
+          new String(bytes.toByteArray, java.nio.charset.StandardCharsets.UTF_8)
+        }
+        // the entries go from the input jar through the shader straight into the output jar,
+        // which also keeps the compressed data of every entry the rules leave alone
+        val shade =
+          Tracked
+            .inputChanged[(String, HashFileInfo, String), Unit](
+              s.cacheStoreFactory.make("package")
+            ) { (changed: Boolean, in: (String, HashFileInfo, String)) =>
+              if (changed || !output.exists) {
+                IO.createDirectory(output.getParentFile)
+                Shader.shadeFile(
+                  rules,
+                  input.toPath,
+                  output.toPath,
+                  verbose,
+                  resetTimestamp = true,
+                  warnOnDuplicateClass = false,
+                  cache = None,
+                  manifest
+                )
+              }
+            }
+        // the manifest is tracked as well, so a change to packageOptions is picked up
+        shade((Shader.ruleSet(rules).getFingerprint, FileInfo.hash(input), manifestText))
+        output
+      },
     )
 
+  /**
+   * Builds the manifest that sbt's own packaging would write for `options`, so that the shaded
+   * jar carries the attributes and the main class the build asks for. Options that do not touch
+   * the manifest, such as a fixed timestamp, are left to sbt.
+   */
+  def packageManifest(options: Seq[PackageOption]): java.util.jar.Manifest = {
+    import Package.{ JarManifest, MainClass, ManifestAttributes }
+    val manifest = new java.util.jar.Manifest
+    val main = manifest.getMainAttributes
+    options.foreach {
+      case JarManifest(mergeManifest) => Package.mergeManifests(manifest, mergeManifest)
+      case MainClass(mainClassName) =>
+        main.put(java.util.jar.Attributes.Name.MAIN_CLASS, mainClassName)
+      case ManifestAttributes(attributes @ _*) =>
+        attributes.foreach { case (name, value) => main.put(name, value) }
+      case _ => ()
+    }
+    Package.setVersion(main)
+    manifest
+  }
+
   def crossName(
       modId: ModuleID,
       scalaModuleInfoOpt: Option[ScalaModuleInfo]